@@ -0,0 +1,96 @@
+package dev.abu.screener_backend.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+import dev.abu.screener_backend.binance.entities.PriceLevelListDeserializer;
+import dev.abu.screener_backend.binance.ws.WSMessageDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of raw websocket messages and REST snapshots, i.e. the work {@code WSMessageFilter.filter} does
+ * before an event is handed over to the depth consumer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int PAYLOADS = 64;
+
+    private ObjectMapper mapper;
+    private JsonFactory factory;
+    private WSMessageDecoder decoder;
+
+    private String[] spotDiffs;
+    private String[] futDiffs;
+    private byte[][] spotDiffBytes;
+    private String snapshot;
+    private String priceLevels;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DepthPayloads payloads = new DepthPayloads(42);
+        mapper = DepthPayloads.mapper();
+        factory = mapper.getFactory();
+        decoder = new WSMessageDecoder(mapper);
+
+        spotDiffs = new String[PAYLOADS];
+        futDiffs = new String[PAYLOADS];
+        spotDiffBytes = new byte[PAYLOADS][];
+        for (int i = 0; i < PAYLOADS; i++) {
+            spotDiffs[i] = payloads.spotDiff();
+            futDiffs[i] = payloads.futDiff();
+            spotDiffBytes[i] = spotDiffs[i].getBytes(StandardCharsets.UTF_8);
+        }
+        snapshot = payloads.snapshot(DepthPayloads.SNAPSHOT_LEVELS);
+        priceLevels = mapper.readTree(spotDiffs[0]).get("b").toString();
+    }
+
+    @Benchmark
+    public Object decodeSpotDiff() throws IOException {
+        return decoder.decode(spotDiffs[next()]);
+    }
+
+    /**
+     * The path of the websocket connections, which decode the UTF-8 payload without creating a {@link String}.
+     */
+    @Benchmark
+    public Object decodeSpotDiffBytes() throws IOException {
+        byte[] bytes = spotDiffBytes[next()];
+        return decoder.decode(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Object decodeFutDiff() throws IOException {
+        return decoder.decode(futDiffs[next()]);
+    }
+
+    @Benchmark
+    public DepthEvent decodeSnapshot() throws IOException {
+        return mapper.readValue(snapshot, DepthEvent.class);
+    }
+
+    @Benchmark
+    public PriceLevelList readPriceLevels() throws IOException {
+        try (JsonParser p = factory.createParser(priceLevels)) {
+            p.nextToken();
+            return PriceLevelListDeserializer.read(p);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (PAYLOADS - 1);
+        return index;
+    }
+}
@@ -0,0 +1,144 @@
+package dev.abu.screener_backend.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import dev.abu.screener_backend.settings.Settings;
+import dev.abu.screener_backend.settings.SettingsEntry;
+import dev.abu.screener_backend.settings.SettingsType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic Binance depth payloads of realistic sizes, generated with a fixed seed so that runs are comparable.
+ * <br> <br>
+ * Prices are on a 0.01 tick grid around {@link #MID_PRICE}, formatted with 8 decimals like Binance does.
+ * A diff with {@link #DIFF_LEVELS} levels per side is about 7KB, the average size of a spot depth message.
+ */
+public class DepthPayloads {
+
+    public static final double MID_PRICE = 2500.00;
+    public static final double TICK = 0.01;
+    public static final int SNAPSHOT_LEVELS = 1000;
+    public static final int DIFF_LEVELS = 110;
+    /** Diff levels are spread over this many ticks from the mid price. */
+    public static final int DIFF_RANGE_TICKS = 1500;
+
+    private final Random random;
+    private long updateId = 1_000_000L;
+
+    public DepthPayloads(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return the same object mapper as the application uses.
+     */
+    public static ObjectMapper mapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return mapper;
+    }
+
+    /**
+     * @return default settings of the application, the same settings scaled for large tickers, and one coin-based settings.
+     */
+    public static List<Settings> settings() {
+        List<Settings> settings = new ArrayList<>();
+        settings.add(settings(SettingsType.DOLLAR, "default_all", 1,
+                0.5, 500_000, 1.0, 1_000_000, 2.0, 3_000_000, 5.0, 10_000_000));
+        settings.add(settings(SettingsType.DOLLAR, "default_large", 2,
+                0.5, 5_000_000, 1.0, 10_000_000, 2.0, 30_000_000, 5.0, 100_000_000));
+        settings.add(settings(SettingsType.COINS, "user_coins", 3,
+                0.2, 200, 1.0, 400));
+        return settings;
+    }
+
+    /**
+     * @return depth snapshot as returned by the REST API, with {@code levels} levels per side.
+     */
+    public String snapshot(int levels) {
+        StringBuilder sb = new StringBuilder(levels * 64 + 64);
+        sb.append("{\"lastUpdateId\":").append(updateId).append(",\"bids\":[");
+        for (int i = 1; i <= levels; i++) {
+            if (i > 1) sb.append(',');
+            appendLevel(sb, MID_PRICE - i * TICK, quantity());
+        }
+        sb.append("],\"asks\":[");
+        for (int i = 1; i <= levels; i++) {
+            if (i > 1) sb.append(',');
+            appendLevel(sb, MID_PRICE + i * TICK, quantity());
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * @return spot depth diff as sent by the websocket stream.
+     */
+    public String spotDiff() {
+        return diff(false);
+    }
+
+    /**
+     * @return futures depth diff as sent by the websocket stream, with the "pu" field.
+     */
+    public String futDiff() {
+        return diff(true);
+    }
+
+    private String diff(boolean isFut) {
+        long first = updateId + 1;
+        updateId += 1 + random.nextInt(50);
+        StringBuilder sb = new StringBuilder(DIFF_LEVELS * 64 + 256);
+        sb.append("{\"e\":\"depthUpdate\",\"E\":").append(System.currentTimeMillis());
+        if (isFut) sb.append(",\"T\":").append(System.currentTimeMillis());
+        sb.append(",\"s\":\"ETHUSDT\",\"U\":").append(first).append(",\"u\":").append(updateId);
+        if (isFut) sb.append(",\"pu\":").append(first - 1);
+        sb.append(",\"b\":[");
+        appendDiffLevels(sb, -1);
+        sb.append("],\"a\":[");
+        appendDiffLevels(sb, 1);
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private void appendDiffLevels(StringBuilder sb, int direction) {
+        for (int i = 0; i < DIFF_LEVELS; i++) {
+            if (i > 0) sb.append(',');
+            double price = MID_PRICE + direction * (1 + random.nextInt(DIFF_RANGE_TICKS)) * TICK;
+            // about every 5th level of a diff is removed from the book
+            double quantity = random.nextInt(5) == 0 ? 0 : quantity();
+            appendLevel(sb, price, quantity);
+        }
+    }
+
+    private double quantity() {
+        // mostly small levels with a few large ones, like in a real book
+        double quantity = random.nextDouble() * 20;
+        if (random.nextInt(50) == 0) quantity *= 200;
+        return quantity;
+    }
+
+    private static void appendLevel(StringBuilder sb, double price, double quantity) {
+        sb.append("[\"").append(String.format(Locale.US, "%.8f", price))
+                .append("\",\"").append(String.format(Locale.US, "%.8f", quantity))
+                .append("\"]");
+    }
+
+    private static Settings settings(SettingsType type, String hash, long id, double... entries) {
+        List<SettingsEntry> list = new ArrayList<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            list.add(new SettingsEntry(entries[i], entries[i + 1]));
+        }
+        Settings settings = new Settings("ethusdt", true, type, list, hash);
+        settings.setId(id);
+        return settings;
+    }
+}
@@ -0,0 +1,99 @@
+package dev.abu.screener_backend.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.abu.screener_backend.binance.dt.BookEvaluator;
+import dev.abu.screener_backend.binance.dt.GeneralTradeList;
+import dev.abu.screener_backend.binance.dt.TradeList;
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+import dev.abu.screener_backend.binance.ws.WSMessageDecoder;
+import dev.abu.screener_backend.settings.Settings;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying decoded depth diffs to an order book and updating its trade lists,
+ * i.e. the work {@code OrderBook.analyzeData} does for every event.
+ * <br> <br>
+ * The book is loaded from a 1000-level snapshot and has the trade lists of {@link DepthPayloads#settings()}.
+ * The same diffs are applied over and over, so the size of the book stays stable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBookBenchmark {
+
+    private static final int PAYLOADS = 256;
+
+    private GeneralTradeList book;
+    private BookEvaluator evaluator;
+    private PriceLevelList[] bids;
+    private PriceLevelList[] asks;
+    private final PriceLevelList empty = new PriceLevelList();
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DepthPayloads payloads = new DepthPayloads(42);
+        ObjectMapper mapper = DepthPayloads.mapper();
+        WSMessageDecoder decoder = new WSMessageDecoder(mapper);
+
+        DepthEvent snapshot = mapper.readValue(payloads.snapshot(DepthPayloads.SNAPSHOT_LEVELS), DepthEvent.class);
+        book = new GeneralTradeList();
+        book.process(snapshot.getBids(), snapshot.getAsks(), true);
+
+        evaluator = new BookEvaluator();
+        for (Settings settings : DepthPayloads.settings()) {
+            evaluator.add(new TradeList(settings, "ethusdt"));
+        }
+        evaluator.evaluate(book, snapshot.getBids(), snapshot.getAsks(), true);
+
+        bids = new PriceLevelList[PAYLOADS];
+        asks = new PriceLevelList[PAYLOADS];
+        for (int i = 0; i < PAYLOADS; i++) {
+            DepthEvent diff = (DepthEvent) decoder.decode(payloads.spotDiff());
+            bids[i] = diff.getBids();
+            asks[i] = diff.getAsks();
+        }
+    }
+
+    /**
+     * Only applies the diff to the book ({@code GeneralTradeList.process}).
+     */
+    @Benchmark
+    public GeneralTradeList applyDiff() {
+        int i = next();
+        book.process(bids[i], asks[i], false);
+        return book;
+    }
+
+    /**
+     * Applies the diff and updates the trade lists incrementally, which is what happens for most of the events.
+     */
+    @Benchmark
+    public BookEvaluator applyAndEvaluateDiff() {
+        int i = next();
+        book.process(bids[i], asks[i], false);
+        evaluator.evaluate(book, bids[i], asks[i], false);
+        return evaluator;
+    }
+
+    /**
+     * Full scan of the book by all trade lists, which happens after a snapshot, a truncation or a market price move.
+     */
+    @Benchmark
+    public BookEvaluator fullScan() {
+        evaluator.evaluate(book, empty, empty, true);
+        return evaluator;
+    }
+
+    private int next() {
+        index = (index + 1) & (PAYLOADS - 1);
+        return index;
+    }
+}
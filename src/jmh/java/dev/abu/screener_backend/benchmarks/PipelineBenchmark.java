@@ -0,0 +1,184 @@
+package dev.abu.screener_backend.benchmarks;
+
+import dev.abu.screener_backend.utils.ConsumerWaiter;
+import dev.abu.screener_backend.utils.SpscRingBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hand-over of messages from a socket thread to a decoder thread and on to a depth consumer thread,
+ * through {@link SpscRingBuffer}s with reused slots and through the previous chain of {@link ArrayBlockingQueue}s
+ * with a record per message.
+ * <br> <br>
+ * Each invocation pushes {@value #BATCH} messages through both hops and waits until the last one is consumed.
+ * The stages do no other work, so only the cost of the queues is measured. The score is messages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PipelineBenchmark.BATCH)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    static final int BATCH = 100_000;
+    private static final int CAPACITY = 8192;
+    private static final int MAX_BATCH_SIZE = 1_000;
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final byte[] payload = new byte[7_000];
+    private final Object event = new Object();
+    private final List<Thread> threads = new ArrayList<>();
+
+    private ArrayBlockingQueue<ReceivedMessage> receivedQueue;
+    private ArrayBlockingQueue<Object> eventQueue;
+    private final AtomicLong queueConsumed = new AtomicLong();
+
+    private SpscRingBuffer<Slot> receivedRing;
+    private SpscRingBuffer<Slot> eventRing;
+    private final AtomicLong ringConsumed = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        receivedQueue = new ArrayBlockingQueue<>(CAPACITY);
+        eventQueue = new ArrayBlockingQueue<>(CAPACITY);
+        start("queue-decoder", this::decodeFromQueue);
+        start("queue-consumer", this::consumeFromQueue);
+
+        ConsumerWaiter decoderWaiter = new ConsumerWaiter();
+        ConsumerWaiter consumerWaiter = new ConsumerWaiter();
+        receivedRing = new SpscRingBuffer<>(CAPACITY, Slot::new, decoderWaiter);
+        eventRing = new SpscRingBuffer<>(CAPACITY, Slot::new, consumerWaiter);
+        start("ring-decoder", () -> decodeFromRing(decoderWaiter));
+        start("ring-consumer", () -> consumeFromRing(consumerWaiter));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    @Benchmark
+    public long blockingQueues() throws InterruptedException {
+        long target = queueConsumed.get() + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            receivedQueue.put(new ReceivedMessage(payload, payload.length, System.nanoTime(), i));
+        }
+        awaitConsumed(queueConsumed, target);
+        return target;
+    }
+
+    @Benchmark
+    public long ringBuffers() {
+        long target = ringConsumed.get() + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            Slot slot;
+            while ((slot = receivedRing.claim()) == null) {
+                Thread.yield();
+            }
+            slot.bytes = payload;
+            slot.length = payload.length;
+            slot.receivedAt = System.nanoTime();
+            slot.receivedTime = i;
+            receivedRing.publish();
+        }
+        awaitConsumed(ringConsumed, target);
+        return target;
+    }
+
+    private void decodeFromQueue() {
+        try {
+            while (true) {
+                ReceivedMessage message = receivedQueue.take();
+                if (message.bytes().length == message.length()) {
+                    eventQueue.put(event);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consumeFromQueue() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(eventQueue.take());
+                eventQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                queueConsumed.lazySet(queueConsumed.get() + batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void decodeFromRing(ConsumerWaiter waiter) {
+        BooleanSupplier hasMessages = () -> !receivedRing.isEmpty();
+        while (!Thread.currentThread().isInterrupted()) {
+            Slot message = receivedRing.peek();
+            if (message == null) {
+                waiter.await(hasMessages, IDLE_TIMEOUT_NANOS);
+                continue;
+            }
+            if (message.bytes.length == message.length) {
+                Slot slot;
+                while ((slot = eventRing.claim()) == null) {
+                    Thread.yield();
+                }
+                slot.event = event;
+                eventRing.publish();
+            }
+            message.bytes = null;
+            receivedRing.release();
+        }
+    }
+
+    private void consumeFromRing(ConsumerWaiter waiter) {
+        BooleanSupplier hasEvents = () -> !eventRing.isEmpty();
+        while (!Thread.currentThread().isInterrupted()) {
+            int processed = 0;
+            Slot slot;
+            while (processed < MAX_BATCH_SIZE && (slot = eventRing.peek()) != null) {
+                slot.event = null;
+                eventRing.release();
+                processed++;
+            }
+            if (processed == 0) {
+                waiter.await(hasEvents, IDLE_TIMEOUT_NANOS);
+            } else {
+                ringConsumed.lazySet(ringConsumed.get() + processed);
+            }
+        }
+    }
+
+    private void start(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    private static void awaitConsumed(AtomicLong consumed, long target) {
+        while (consumed.get() < target) {
+            Thread.yield();
+        }
+    }
+
+    private record ReceivedMessage(byte[] bytes, int length, long receivedAt, long receivedTime) {}
+
+    private static class Slot {
+        private byte[] bytes;
+        private int length;
+        private long receivedAt;
+        private long receivedTime;
+        private Object event;
+    }
+}
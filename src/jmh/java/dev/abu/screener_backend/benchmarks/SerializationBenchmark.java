@@ -0,0 +1,57 @@
+package dev.abu.screener_backend.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+import dev.abu.screener_backend.binance.entities.Trade;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of {@link TradeListDTO}s into the message that is sent to users,
+ * i.e. the work {@code UserContainer.broadcastEvents} does for every session on every tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "50"})
+    public int symbols;
+
+    private ObjectMapper mapper;
+    private List<TradeListDTO> dtos;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mapper = DepthPayloads.mapper();
+        Random random = new Random(42);
+        dtos = new ArrayList<>(symbols);
+        for (int s = 0; s < symbols; s++) {
+            dtos.add(new TradeListDTO("symbol" + s + "usdt", trades(random, -1), trades(random, 1)));
+        }
+    }
+
+    @Benchmark
+    public byte[] writeTradeLists() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(dtos);
+    }
+
+    static List<Trade> trades(Random random, int direction) {
+        List<Trade> trades = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            double price = Math.round((DepthPayloads.MID_PRICE + direction * random.nextInt(5000) * 0.01) * 100) / 100.0;
+            double quantity = Math.round(random.nextDouble() * 5000 * 1000) / 1000.0;
+            double distance = Math.round(Math.abs(price - DepthPayloads.MID_PRICE) / DepthPayloads.MID_PRICE * 1000) / 10.0;
+            trades.add(new Trade(price, quantity, distance, 1 + random.nextInt(4), System.currentTimeMillis()));
+        }
+        return trades;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.abu.screener_backend.benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+import dev.abu.screener_backend.binance.entities.Trade;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a single {@link TradeListDTO} with 5 bids and 5 asks by {@code TradeSerializer},
+ * compared to the previous serializer that formatted every field with {@link BigDecimal}.
+ * <br> <br>
+ * The output stream is reused, so with {@code -prof gc} the allocation per operation
+ * is the allocation of the serializers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradeSerializerBenchmark {
+
+    private ObjectMapper mapper;
+    private ObjectMapper bigDecimalMapper;
+    private TradeListDTO dto;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mapper = DepthPayloads.mapper();
+        bigDecimalMapper = DepthPayloads.mapper().addMixIn(Trade.class, BigDecimalTradeMixIn.class);
+        Random random = new Random(42);
+        dto = new TradeListDTO("ethusdt", SerializationBenchmark.trades(random, -1), SerializationBenchmark.trades(random, 1));
+
+        if (!mapper.writeValueAsString(dto).equals(bigDecimalMapper.writeValueAsString(dto))) {
+            throw new IllegalStateException("Serializers produce different output");
+        }
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeTradeList() throws IOException {
+        out.reset();
+        mapper.writeValue(out, dto);
+        return out;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeTradeListWithBigDecimal() throws IOException {
+        out.reset();
+        bigDecimalMapper.writeValue(out, dto);
+        return out;
+    }
+
+    @JsonSerialize(using = BigDecimalTradeSerializer.class)
+    private static abstract class BigDecimalTradeMixIn {}
+
+    private static class BigDecimalTradeSerializer extends JsonSerializer<Trade> {
+        @Override
+        public void serialize(Trade trade, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartArray();
+            gen.writeString(BigDecimal.valueOf(trade.getPrice()).toPlainString());
+            gen.writeString(BigDecimal.valueOf(trade.getQuantity()).toPlainString());
+            gen.writeString(BigDecimal.valueOf(trade.getDistance()).toPlainString());
+            gen.writeString(BigDecimal.valueOf(trade.getLevel()).toPlainString());
+            gen.writeString(BigDecimal.valueOf(trade.getLife()).toPlainString());
+            gen.writeEndArray();
+        }
+    }
+}
@@ -8,8 +8,10 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static dev.abu.screener_backend.utils.EnvParams.FUT_URL;
 import static dev.abu.screener_backend.utils.EnvParams.SPOT_URL;
@@ -23,13 +25,26 @@ public class BinanceClient {
     private static final int SPOT_API_RATE_LIMIT = 5700;
     private static final int FUT_API_RATE_LIMIT = 2300;
 
+    // request weights, see https://developers.binance.com/docs/binance-spot-api-docs/rest-api
+    private static final int SPOT_DEPTH_WEIGHT = 50;
+    private static final int FUT_DEPTH_WEIGHT = 20;
+    private static final int SPOT_KLINES_WEIGHT = 2;
+    // futures klines weight depends on the limit, see getKlinesWeight()
+    private static final int FUT_KLINES_MAX_WEIGHT = 10;
+
     private static final CloseableHttpClient httpClient;
+    private static final AtomicInteger threadCount = new AtomicInteger();
 
-    private static final AtomicInteger usedWeight1mSpot = new AtomicInteger(0);
-    private static final AtomicInteger usedWeight1mFut = new AtomicInteger(0);
+    private static final RequestWeightLimiter spotLimiter = new RequestWeightLimiter("SPOT", SPOT_API_RATE_LIMIT);
+    private static final RequestWeightLimiter futLimiter = new RequestWeightLimiter("FUT", FUT_API_RATE_LIMIT);
 
-    private static final ReentrantLock spotLock = new ReentrantLock();
-    private static final ReentrantLock futLock = new ReentrantLock();
+    // runs requests of the async methods once their weight is acquired
+    private static final ExecutorService requestExecutor = Executors.newFixedThreadPool(8, r -> {
+        Thread thread = new Thread(r);
+        thread.setName("binance-request-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
 
     static {
         RequestConfig config = RequestConfig.custom()
@@ -39,6 +54,8 @@ public class BinanceClient {
                 .build();
         httpClient = HttpClients.custom()
                 .setDefaultRequestConfig(config)
+                .setMaxConnPerRoute(64)
+                .setMaxConnTotal(128)
                 .build();
     }
 
@@ -49,13 +66,8 @@ public class BinanceClient {
      * @return depth snapshot response from Binance API.
      */
     public static String getInitialSnapshot(String symbol, boolean isSpot) {
-        ReentrantLock lock = isSpot ? spotLock : futLock;
-        lock.lock();
-        try {
-            return executeRequest("/depth?symbol=" + symbol.toUpperCase() + "&limit=1000", isSpot);
-        } finally {
-            lock.unlock();
-        }
+        int weight = isSpot ? SPOT_DEPTH_WEIGHT : FUT_DEPTH_WEIGHT;
+        return executeRequest("/depth?symbol=" + symbol.toUpperCase() + "&limit=1000", isSpot, weight);
     }
 
     /**
@@ -67,14 +79,40 @@ public class BinanceClient {
      * @return a klines data of the given symbol
      */
     public static String getKlinesData(String symbol, String interval, String limit, boolean isSpot) {
-        ReentrantLock lock = isSpot ? spotLock : futLock;
-        lock.lock();
+        int weight = getKlinesWeight(limit, isSpot);
+        String path = String.format("/klines?symbol=%s&interval=%s&limit=%s", symbol.toUpperCase(), interval, limit);
+        return executeRequest(path, isSpot, weight);
+    }
+
+    /**
+     * Same as {@link #getKlinesData}, but doesn't block the calling thread while waiting for the request weight.
+     * @return a future of the klines data of the given symbol
+     */
+    public static CompletableFuture<String> getKlinesDataAsync(String symbol, String interval, String limit, boolean isSpot) {
+        int weight = getKlinesWeight(limit, isSpot);
+        String path = String.format("/klines?symbol=%s&interval=%s&limit=%s", symbol.toUpperCase(), interval, limit);
+        return getLimiter(isSpot)
+                .acquireAsync(weight)
+                .thenApplyAsync(v -> sendRequest(path, isSpot), requestExecutor);
+    }
+
+    /**
+     * Futures klines cost 1 below a limit of 100, 2 below 500, 5 up to 1000 and 10 above,
+     * a missing limit means 500. A limit that isn't a number is reserved with the highest weight.
+     * @return request weight of a klines request with the given limit.
+     */
+    private static int getKlinesWeight(String limit, boolean isSpot) {
+        if (isSpot) return SPOT_KLINES_WEIGHT;
+        int value;
         try {
-            String path = String.format("/klines?symbol=%s&interval=%s&limit=%s", symbol.toUpperCase(), interval, limit);
-            return executeRequest(path, isSpot);
-        } finally {
-            lock.unlock();
+            value = limit == null || limit.isBlank() ? 500 : Integer.parseInt(limit.trim());
+        } catch (NumberFormatException e) {
+            return FUT_KLINES_MAX_WEIGHT;
         }
+        if (value < 100) return 1;
+        if (value < 500) return 2;
+        if (value <= 1000) return 5;
+        return FUT_KLINES_MAX_WEIGHT;
     }
 
     /**
@@ -82,24 +120,35 @@ public class BinanceClient {
      *
      * @param path everything in the URL that comes after a base uri.
      * @param isSpot boolean to specify the market, true=spot false=futures.
+     * @param weight request weight of the endpoint.
      * @return a response from the Binance server as a result of hitting the provided endpoint.
      */
-    private static String executeRequest(String path, boolean isSpot) {
-        checkRateLimits(isSpot);
+    private static String executeRequest(String path, boolean isSpot, int weight) {
+        getLimiter(isSpot).acquire(weight);
+        return sendRequest(path, isSpot);
+    }
+
+    private static String sendRequest(String path, boolean isSpot) {
         String baseUri = isSpot ? SPOT_URL : FUT_URL;
         HttpGet depthRequest = new HttpGet(baseUri + path);
         depthRequest.addHeader("Accept", "application/json");
 
         try (var response = httpClient.execute(depthRequest)) {
             HttpEntity entity = response.getEntity();
+            RequestWeightLimiter limiter = getLimiter(isSpot);
 
-            // record the current used request weight
-            String xMbxUsedWeight1m = response.getFirstHeader("x-mbx-used-weight-1m").getValue();
-            int usedWeight = Integer.parseInt(xMbxUsedWeight1m);
-            if (isSpot) {
-                usedWeight1mSpot.set(usedWeight);
-            } else {
-                usedWeight1mFut.set(usedWeight);
+            // correct the limiter by the current used request weight
+            var xMbxUsedWeight1m = response.getFirstHeader("x-mbx-used-weight-1m");
+            if (xMbxUsedWeight1m != null) {
+                limiter.correct(Integer.parseInt(xMbxUsedWeight1m.getValue()));
+            }
+
+            // 429 - rate limit is exceeded, 418 - IP is banned for exceeding it
+            int status = response.getStatusLine().getStatusCode();
+            if (status == 429 || status == 418) {
+                var retryAfter = response.getFirstHeader("Retry-After");
+                long seconds = retryAfter == null ? 60 : Long.parseLong(retryAfter.getValue());
+                limiter.pause(seconds * 1000);
             }
 
             if (entity != null) {
@@ -111,58 +160,7 @@ public class BinanceClient {
         }
     }
 
-    /**
-     * Function that checks if the used API weight is close to Binance's rate limit.
-     * If the used weight is close to the limit, thread sleeps until the next minute.
-     * @param isSpot boolean to specify the market, true=spot false=futures.
-     */
-    private static void checkRateLimits(boolean isSpot) {
-        int weightUsed = isSpot ? usedWeight1mSpot.get() : usedWeight1mFut.get();
-        if (isApiLimitExceeded(isSpot)) {
-            long millisToWait = getMillisUntilNextMinute();
-            log.info("Request weight is {}. Waiting for {} seconds", weightUsed, millisToWait / 1000);
-            waitFor(millisToWait);
-            usedWeight1mSpot.set(0);
-            usedWeight1mFut.set(0);
-        }
-    }
-
-    /**
-     * @return long, time that is left until the next minute begins (in milliseconds).
-     */
-    private static long getMillisUntilNextMinute() {
-        long currentTimeMillis = System.currentTimeMillis();
-        long millisecondsInMinute = 60_000;
-        long elapsed = currentTimeMillis % millisecondsInMinute;
-        long result = millisecondsInMinute - elapsed + 2000;
-
-        // avoid waiting too long
-        if (result >= 60_000) {
-            return 2000;
-        }
-        return result;
-    }
-
-    /**
-     * @param isSpot boolean specifying market type (spot/perp).
-     * @return true is binance api rate limit is exceeded.
-     */
-    private static boolean isApiLimitExceeded(boolean isSpot) {
-        int apiRateLimit = isSpot ? SPOT_API_RATE_LIMIT : FUT_API_RATE_LIMIT;
-        int weightUsed = isSpot ? usedWeight1mSpot.get() : usedWeight1mFut.get();
-        return weightUsed >= apiRateLimit;
-    }
-
-    /**
-     * Simply waits for the specified amount of time.
-     * @param millis milliseconds to wait for.
-     */
-    private static void waitFor(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Thread interrupted during rate limit wait: {}", e.getMessage());
-        }
+    private static RequestWeightLimiter getLimiter(boolean isSpot) {
+        return isSpot ? spotLimiter : futLimiter;
     }
 }
@@ -2,6 +2,8 @@ package dev.abu.screener_backend.binance;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import dev.abu.screener_backend.binance.dt.BookSide;
+import dev.abu.screener_backend.binance.dt.GeneralTradeList;
 import dev.abu.screener_backend.binance.entities.KlineInterval;
 import dev.abu.screener_backend.binance.ws.BinanceWebSocket;
 import dev.abu.screener_backend.binance.ws.KlineEventConsumer;
@@ -14,8 +16,6 @@ import org.springframework.stereotype.Service;
 
 import java.io.OutputStream;
 import java.util.Collection;
-import java.util.Map;
-import java.util.TreeMap;
 
 import static dev.abu.screener_backend.binance.OBService.printReSyncMap;
 import static dev.abu.screener_backend.utils.EnvParams.FUT_SIGN;
@@ -81,8 +81,16 @@ public class BinanceService {
     public void depthSnapshot(HttpServletResponse response, String mSymbol) throws Exception {
         if (mSymbol == null || mSymbol.isEmpty()) return;
         OrderBook orderBook = obService.getOrderBook(mSymbol);
-        Map<Double, Double> bids = new TreeMap<>(orderBook.getGeneralTradeList().getBids());
-        Map<Double, Double> asks = new TreeMap<>(orderBook.getGeneralTradeList().getAsks());
+        GeneralTradeList generalTradeList = orderBook.getGeneralTradeList();
+        BookSide bids;
+        BookSide asks;
+        double price;
+        // both sides and the price must come from the same state of the book
+        synchronized (generalTradeList) {
+            bids = generalTradeList.copyBids();
+            asks = generalTradeList.copyAsks();
+            price = generalTradeList.getMarketPrice();
+        }
 
         OutputStream out = response.getOutputStream();
         JsonFactory factory = new JsonFactory();
@@ -92,7 +100,7 @@ public class BinanceService {
 
         gen.writeStringField("mSymbol", mSymbol);
         gen.writeNumberField("lastUpdateId", orderBook.getLastUpdateId());
-        gen.writeNumberField("price", orderBook.getGeneralTradeList().getMarketPrice());
+        gen.writeNumberField("price", price);
         gen.writeNumberField("bidsSize", bids.size());
         gen.writeNumberField("asksSize", asks.size());
 
@@ -104,13 +112,17 @@ public class BinanceService {
         gen.close();
     }
 
-    private void writeSide(JsonGenerator gen, String fieldName, Map<Double, Double> side) throws Exception {
+    /**
+     * Writes levels of the given side best price first: bids in descending, asks in ascending price order.
+     */
+    private void writeSide(JsonGenerator gen, String fieldName, BookSide side) throws Exception {
         gen.writeFieldName(fieldName);
         gen.writeStartArray();
-        for (Map.Entry<Double, Double> e : side.entrySet()) {
+        int n = side.size();
+        for (int i = 0; i < n; i++) {
             gen.writeStartArray();
-            gen.writeNumber(e.getKey());
-            gen.writeNumber(e.getValue());
+            gen.writeNumber(side.price(i));
+            gen.writeNumber(side.quantity(i));
             gen.writeEndArray();
         }
         gen.writeEndArray();
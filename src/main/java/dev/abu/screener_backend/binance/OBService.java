@@ -2,6 +2,7 @@ package dev.abu.screener_backend.binance;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.dt.TradeList;
+import dev.abu.screener_backend.binance.ws.KlineEventConsumer;
 import dev.abu.screener_backend.settings.Settings;
 import dev.abu.screener_backend.settings.SettingsRepository;
 import dev.abu.screener_backend.websockets.EventDistributor;
@@ -33,6 +34,7 @@ public class OBService {
     private final ObjectMapper mapper;
     private final EventDistributor eventDistributor;
     private final SettingsRepository settingsRepository;
+    private final KlineEventConsumer klineEventConsumer;
     @Getter private Settings allSymbolDefSettings;
 
     @PostConstruct
@@ -67,7 +69,8 @@ public class OBService {
     public void prepareOrderBooks(Collection<String> symbols, boolean isSpot) {
         for (String symbol : symbols) {
             String mSymbol = isSpot ? symbol : symbol + FUT_SIGN;
-            var orderbook = new OrderBook(mSymbol, isSpot, mapper, eventDistributor);
+            var orderbook = new OrderBook(mSymbol, isSpot, mapper, eventDistributor,
+                    () -> klineEventConsumer.getQuoteVolume(mSymbol));
             orderBooks.putIfAbsent(mSymbol, orderbook);
             addDefaultTL(orderbook);
         }
@@ -2,60 +2,129 @@ package dev.abu.screener_backend.binance;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.dt.AsyncOBScheduler;
+import dev.abu.screener_backend.binance.dt.BookEvaluator;
 import dev.abu.screener_backend.binance.dt.GeneralTradeList;
 import dev.abu.screener_backend.binance.dt.TradeList;
 import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.metrics.LatencyMetrics;
 import dev.abu.screener_backend.websockets.EventDistributor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.function.DoubleSupplier;
 
 import static dev.abu.screener_backend.binance.OBService.decrementReSyncCount;
 import static dev.abu.screener_backend.binance.OBService.incrementReSyncCount;
 import static dev.abu.screener_backend.binance.BinanceClient.getInitialSnapshot;
+import static dev.abu.screener_backend.metrics.LatencyStage.*;
 import static dev.abu.screener_backend.utils.EnvParams.FUT_SIGN;
 
 @Slf4j
 public class OrderBook {
 
+    /**
+     * Max number of depth events kept while the initial snapshot is being fetched.
+     * Depth streams push at most 10 events per second, so this covers well over a minute of waiting for a snapshot.
+     */
+    private static final int REPLAY_BUFFER_CAPACITY = 1_000;
+
     private final ObjectMapper mapper;
     private final EventDistributor eventDistributor;
+    // priority of the snapshot task, books of more traded symbols are re-synced first
+    private final DoubleSupplier snapshotPriority;
     private final boolean isSpot;
     private boolean isInitialEvent = false;
 
     @Getter
     private final GeneralTradeList generalTradeList;
-    @Getter
-    private final Set<TradeList> tls;
+    private final BookEvaluator evaluator;
     @Getter
     private final String mSymbol;
     @Getter
     private long lastUpdateId;
     @Getter
-    private boolean isTaskScheduled = false;
+    private volatile boolean isTaskScheduled = false;
     private boolean isReSync = true;
+    // events received while the snapshot task is running, accessed only by the depth consumer thread of this book
+    private final ArrayDeque<DepthEvent> replayBuffer = new ArrayDeque<>();
+    private boolean isReplayBufferOverflown = false;
 
     public OrderBook(
             String mSymbol,
             boolean isSpot,
             ObjectMapper mapper,
-            EventDistributor eventDistributor
+            EventDistributor eventDistributor,
+            DoubleSupplier snapshotPriority
     ) {
         this.mSymbol = mSymbol;
         this.isSpot = isSpot;
         this.mapper = mapper;
         this.eventDistributor = eventDistributor;
+        this.snapshotPriority = snapshotPriority;
         this.generalTradeList = new GeneralTradeList();
-        this.tls = new HashSet<>();
+        this.evaluator = new BookEvaluator();
     }
 
     public boolean isScheduleNeeded() {
         return !isTaskScheduled && isReSync;
     }
 
+    /**
+     * Processes a depth event. Called only by the depth consumer thread of this book.
+     * <br> <br>
+     * While the initial snapshot is being fetched, events are kept in a bounded replay buffer.
+     * Once the snapshot is applied, buffered events are replayed in order before any newer event,
+     * either by the next call of this method or by {@link #replayBufferedEvents()}.
+     */
     public void process(DepthEvent depthEvent) {
+        if (isTaskScheduled) {
+            bufferEvent(depthEvent);
+            return;
+        }
+
+        replayBufferedEvents();
+        if (isTaskScheduled) {
+            // replaying the buffer started another re-sync
+            bufferEvent(depthEvent);
+        } else {
+            handleEvent(depthEvent);
+        }
+    }
+
+    /**
+     * @return true if there are buffered events that are waiting for the snapshot task to finish.
+     */
+    public boolean hasBufferedEvents() {
+        return !replayBuffer.isEmpty();
+    }
+
+    /**
+     * Replays buffered events if the snapshot task has finished. Called only by the depth consumer thread of this book.
+     */
+    public void replayBufferedEvents() {
+        DepthEvent depthEvent;
+        while (!isTaskScheduled && (depthEvent = replayBuffer.poll()) != null) {
+            handleEvent(depthEvent);
+        }
+        if (replayBuffer.isEmpty()) {
+            isReplayBufferOverflown = false;
+        }
+    }
+
+    private void bufferEvent(DepthEvent depthEvent) {
+        if (replayBuffer.size() >= REPLAY_BUFFER_CAPACITY) {
+            // the oldest events are the first to become older than the snapshot, so they are the ones to drop
+            replayBuffer.poll();
+            if (!isReplayBufferOverflown) {
+                isReplayBufferOverflown = true;
+                log.warn("Replay buffer of {} is full, dropping the oldest events.", mSymbol);
+            }
+        }
+        replayBuffer.offer(depthEvent);
+    }
+
+    private void handleEvent(DepthEvent depthEvent) {
         // if re-sync is needed and there is no task that is queued for concurrent run,
         // then process this event concurrently to get the initial snapshot
         if (isScheduleNeeded()) {
@@ -64,19 +133,20 @@ public class OrderBook {
 
         // if initial snapshot has already been processed (in which case no task is scheduled for concurrent run),
         // then process the events as usual
-        else if (!isTaskScheduled) {
+        else {
             processEvent(depthEvent);
         }
-
-        // in any other case, events will be ignored, so they should be kept in the buffer.
     }
 
     private void processEventConcurrently(DepthEvent depthEvent) {
         isTaskScheduled = true;
         AsyncOBScheduler.scheduleTask(() -> {
-            startProcessing(depthEvent);
-            isTaskScheduled = false;
-        }, isSpot);
+            try {
+                startProcessing(depthEvent);
+            } finally {
+                isTaskScheduled = false;
+            }
+        }, isSpot, snapshotPriority.getAsDouble());
     }
 
     private void startProcessing(DepthEvent depthEvent) {
@@ -111,6 +181,7 @@ public class OrderBook {
     }
 
     private void processSpotEvent(DepthEvent depthEvent, long U, long u) {
+        if (isStale(u)) return;
         if (lastUpdateId + 1 >= U && lastUpdateId < u) {
             lastUpdateId = u;
             analyzeData(depthEvent, false);
@@ -120,6 +191,7 @@ public class OrderBook {
     }
 
     private void processFutEvent(DepthEvent depthEvent, long u) {
+        if (isStale(u)) return;
         long pu = depthEvent.getLastUpdateId();
         if (lastUpdateId == pu) {
             lastUpdateId = u;
@@ -129,6 +201,14 @@ public class OrderBook {
         }
     }
 
+    /**
+     * @return true if the book already contains all updates of the event, e.g. an event that arrived on two
+     * connections while its symbol was moved between them.
+     */
+    private boolean isStale(long u) {
+        return u <= lastUpdateId;
+    }
+
     private void startReSync() {
         isReSync = true;
         decrementReSyncCount(isSpot, mSymbol);
@@ -159,18 +239,31 @@ public class OrderBook {
     }
 
     private synchronized void analyzeData(DepthEvent depthEvent, boolean initialSnapshot) {
-        generalTradeList.process(depthEvent.getBids(), depthEvent.getAsks(), initialSnapshot);
-        tls.forEach(tl -> {
-            tl.process(generalTradeList);
-            eventDistributor.distribute(tl.getSettings().getSettingsHash(), tl.getMaxLevel(), tl.toDTO());
-        });
+        // trade lists read the book sides directly, so the book must not be truncated in the meantime
+        synchronized (generalTradeList) {
+            long start = System.nanoTime();
+            generalTradeList.process(depthEvent.getBids(), depthEvent.getAsks(), initialSnapshot);
+            long applied = System.nanoTime();
+            evaluator.evaluate(generalTradeList, depthEvent.getBids(), depthEvent.getAsks(), initialSnapshot);
+            long evaluated = System.nanoTime();
+            for (TradeList tl : evaluator.getTradeLists()) {
+                // unchanged trade lists are not sent again, their recipients already have them
+                if (!tl.consumeChanges()) continue;
+                eventDistributor.distribute(tl.getSettings().getSettingsHash(), tl.getMaxLevel(), tl.toDTO(), depthEvent.getEventTime());
+            }
+            if (!initialSnapshot) {
+                LatencyMetrics.recordNanos(BOOK_APPLY, isSpot, applied - start);
+                LatencyMetrics.recordNanos(EVALUATION, isSpot, evaluated - applied);
+                LatencyMetrics.recordSince(DISTRIBUTION, isSpot, evaluated);
+            }
+        }
     }
 
     public synchronized void addTL(TradeList tradeList) {
-        tls.add(tradeList);
+        evaluator.add(tradeList);
     }
 
     public synchronized void removeTL(TradeList tradeList) {
-        tls.remove(tradeList);
+        evaluator.remove(tradeList);
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package dev.abu.screener_backend.binance;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket of Binance request weight for one market.
+ * <br> <br>
+ * The bucket refills continuously at the rate of the per-minute limit, and holds at most a few seconds of weight,
+ * so requests are spread evenly over the minute instead of bursting until the limit is hit and then stalling.
+ * A request takes its weight right away and waits for the bucket to get out of debt, which keeps the requests
+ * in the order they were made. The bucket is corrected by the used weight reported by Binance in response headers.
+ */
+@Slf4j
+public class RequestWeightLimiter {
+
+    private static final int BURST_SECONDS = 10;
+
+    private final String name;
+    private final int limit;
+    private final double capacity;
+    private final double weightPerNano;
+
+    private double available;
+    private long lastRefillNanos;
+
+    /**
+     * @param name name of the market, used for logging.
+     * @param limitPerMinute weight that may be used per minute.
+     */
+    public RequestWeightLimiter(String name, int limitPerMinute) {
+        this.name = name;
+        this.limit = limitPerMinute;
+        this.capacity = limitPerMinute * BURST_SECONDS / 60.0;
+        this.weightPerNano = limitPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks the calling thread until the given weight may be used.
+     * @param weight weight of the request.
+     */
+    public void acquire(int weight) {
+        long nanosToWait = reserve(weight);
+        if (nanosToWait <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanosToWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Thread interrupted during rate limit wait: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Acquires the given weight without blocking.
+     * @param weight weight of the request.
+     * @return a future that completes when the weight may be used.
+     */
+    public CompletableFuture<Void> acquireAsync(int weight) {
+        long nanosToWait = reserve(weight);
+        if (nanosToWait <= 0) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(nanosToWait, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Corrects the bucket by the weight Binance counted for the current minute,
+     * e.g. when requests were sent by another process with the same IP.
+     * @param usedWeight value of the {@code x-mbx-used-weight-1m} header.
+     */
+    public synchronized void correct(int usedWeight) {
+        refill();
+        available = Math.min(available, limit - usedWeight);
+    }
+
+    /**
+     * Stops granting weight for the given time, used when Binance responds with 429 and a {@code Retry-After} header.
+     * @param millis time to pause for.
+     */
+    public synchronized void pause(long millis) {
+        refill();
+        available = Math.min(available, -TimeUnit.MILLISECONDS.toNanos(millis) * weightPerNano);
+        log.warn("{} request weight limiter is paused for {} seconds", name, millis / 1000);
+    }
+
+    /**
+     * Takes the weight from the bucket.
+     * @return time in nanos to wait before the weight may be used, 0 if it may be used right away.
+     */
+    private synchronized long reserve(int weight) {
+        refill();
+        available -= weight;
+        if (available >= 0) return 0;
+        return (long) Math.ceil(-available / weightPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) * weightPerNano);
+        lastRefillNanos = now;
+    }
+}
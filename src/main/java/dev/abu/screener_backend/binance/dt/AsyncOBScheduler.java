@@ -1,37 +1,69 @@
 package dev.abu.screener_backend.binance.dt;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static dev.abu.screener_backend.utils.EnvParams.SNAPSHOT_CONCURRENCY;
+
+/**
+ * Runs the initial snapshot tasks of order books.
+ * <br> <br>
+ * Each market has a pool of {@code snapshot.concurrency} threads (see config.properties), so several snapshots
+ * are fetched at the same time. The request weight is budgeted by {@link dev.abu.screener_backend.binance.BinanceClient}.
+ * Waiting tasks are ordered by priority, so that after a reconnect the most traded symbols are recovered first.
+ */
 public class AsyncOBScheduler {
 
-    private static final ThreadPoolExecutor spotExecService = new ThreadPoolExecutor(
-            1, 1, 0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(),
-            r -> {
-                Thread thread = new Thread(r);
-                thread.setName("spot-scheduler");
-                return thread;
-            });
-
-    private static final ThreadPoolExecutor futExecService = new ThreadPoolExecutor(
-            1, 1, 0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>(),
-            r -> {
-                Thread thread = new Thread(r);
-                thread.setName("fut-scheduler");
-                return thread;
-            });
-
-    // it's possible that two objects may call this method at the same time with different isSpot values
-    public synchronized static void scheduleTask(Runnable task, boolean isSpot) {
-        if (isSpot) spotExecService.submit(task);
-        else futExecService.submit(task);
+    private static final ThreadPoolExecutor spotExecService = createExecService("spot-scheduler");
+    private static final ThreadPoolExecutor futExecService = createExecService("fut-scheduler");
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private AsyncOBScheduler() {}
+
+    /**
+     * @param task snapshot task.
+     * @param isSpot boolean to specify the market, true=spot false=futures.
+     * @param priority tasks with higher priority are run first, tasks with equal priority are run in the order of scheduling.
+     */
+    public static void scheduleTask(Runnable task, boolean isSpot, double priority) {
+        var prioritizedTask = new PrioritizedTask(task, priority, sequence.getAndIncrement());
+        if (isSpot) spotExecService.execute(prioritizedTask);
+        else futExecService.execute(prioritizedTask);
     }
 
     public static long getNumOfScheduledTasks(boolean isSpot) {
         if (isSpot) return spotExecService.getQueue().size();
         return futExecService.getQueue().size();
     }
+
+    private static ThreadPoolExecutor createExecService(String name) {
+        int threads = Math.max(1, SNAPSHOT_CONCURRENCY);
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r);
+                    thread.setName(name + "-" + count.incrementAndGet());
+                    return thread;
+                });
+    }
+
+    private record PrioritizedTask(Runnable task, double priority, long sequence)
+            implements Runnable, Comparable<PrioritizedTask> {
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int cmp = Double.compare(other.priority, priority);
+            return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+        }
+    }
 }
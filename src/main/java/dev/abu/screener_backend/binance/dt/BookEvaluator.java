@@ -0,0 +1,215 @@
+package dev.abu.screener_backend.binance.dt;
+
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static dev.abu.screener_backend.binance.dt.TradeList.MAX_TRADES;
+import static dev.abu.screener_backend.binance.dt.TradeList.getDistance;
+
+/**
+ * Evaluates the price levels of one order book for all trade lists attached to it.
+ * <br> <br>
+ * Distance and volume of a price level are computed once per update and classified against the thresholds
+ * of all attached settings together (see {@link LevelThresholds}). Each trade list then only receives the levels
+ * that reach one of its thresholds, plus the few largest levels of the book by quantity, which fill up the
+ * trades of level 0. This way attaching more trade lists to a book doesn't multiply the cost of scanning it.
+ * <br> <br>
+ * This class is not thread-safe, it's guarded by {@link dev.abu.screener_backend.binance.OrderBook}.
+ */
+public class BookEvaluator {
+
+    private final List<TradeList> tls = new ArrayList<>();
+    private LevelThresholds thresholds;
+
+    // scratch arrays, indexed by trade list index
+    private int[] levels = new int[0];
+    private int[] touched = new int[0];
+    private boolean[] rescan = new boolean[0];
+
+    // ranks of the largest levels by quantity
+    private final int[] largest = new int[MAX_TRADES];
+
+    public void add(TradeList tl) {
+        if (tls.contains(tl)) return;
+        tls.add(tl);
+        thresholds = null;
+    }
+
+    public void remove(TradeList tl) {
+        if (tls.remove(tl)) {
+            thresholds = null;
+        }
+    }
+
+    public List<TradeList> getTradeLists() {
+        return Collections.unmodifiableList(tls);
+    }
+
+    /**
+     * Updates all trade lists after the book has been updated.
+     * @param gtl the book, with the update already applied.
+     * @param changedBids bids of the update.
+     * @param changedAsks asks of the update.
+     * @param fullScan true if the whole book must be scanned (e.g. after a snapshot),
+     *                 false to apply only the changed levels to the trade lists that are still valid.
+     */
+    public void evaluate(GeneralTradeList gtl, PriceLevelList changedBids, PriceLevelList changedAsks, boolean fullScan) {
+        if (tls.isEmpty()) return;
+        prepare();
+
+        double marketPrice = gtl.getMarketPrice();
+        long rebuildCount = gtl.getRebuildCount();
+        int n = tls.size();
+        int rescanCount = 0;
+
+        for (int t = 0; t < n; t++) {
+            rescan[t] = fullScan || tls.get(t).isRescanNeeded(marketPrice, rebuildCount);
+            if (rescan[t]) rescanCount++;
+        }
+
+        if (rescanCount < n) {
+            applyChanges(marketPrice, gtl.getBids(), changedBids);
+            applyChanges(marketPrice, gtl.getAsks(), changedAsks);
+            rescanCount = 0;
+            for (int t = 0; t < n; t++) {
+                if (!rescan[t] && !tls.get(t).finishUpdate(marketPrice)) {
+                    rescan[t] = true;
+                }
+                if (rescan[t]) rescanCount++;
+            }
+        }
+
+        if (rescanCount > 0) {
+            scan(marketPrice, rebuildCount, gtl.getBids(), gtl.getAsks());
+        }
+    }
+
+    private void prepare() {
+        if (thresholds != null) return;
+        thresholds = new LevelThresholds(tls);
+        int n = tls.size();
+        if (levels.length < n) {
+            levels = new int[n];
+            touched = new int[n];
+            rescan = new boolean[n];
+        }
+    }
+
+    /**
+     * Feeds the changed levels to the trade lists that don't need a full scan.
+     */
+    private void applyChanges(double marketPrice, BookSide orders, PriceLevelList changes) {
+        boolean isAsk = orders.isAsk();
+        int n = tls.size();
+
+        for (int i = 0; i < changes.size(); i++) {
+            double price = changes.price(i);
+            int rank = orders.rankOf(price);
+
+            if (rank < 0) {
+                for (int t = 0; t < n; t++) {
+                    if (!rescan[t] && !tls.get(t).removeLevel(isAsk, price)) rescan[t] = true;
+                }
+                continue;
+            }
+
+            double quantity = orders.quantity(rank);
+            double dist = getDistance(price, marketPrice);
+            long time = orders.time(rank);
+            int touchedCount = thresholds.classify(price * quantity, quantity, dist, levels, touched);
+
+            for (int t = 0; t < n; t++) {
+                if (!rescan[t] && !tls.get(t).updateLevel(isAsk, price, quantity, dist, levels[t], time)) rescan[t] = true;
+            }
+            resetLevels(touchedCount);
+        }
+    }
+
+    /**
+     * Full scan of both sides for the trade lists that are marked for rescan.
+     */
+    private void scan(double marketPrice, long rebuildCount, BookSide bids, BookSide asks) {
+        int n = tls.size();
+        for (int t = 0; t < n; t++) {
+            if (rescan[t]) tls.get(t).beginScan();
+        }
+
+        scanSide(marketPrice, bids);
+        scanSide(marketPrice, asks);
+
+        for (int t = 0; t < n; t++) {
+            if (rescan[t]) tls.get(t).endScan(marketPrice, rebuildCount);
+        }
+    }
+
+    private void scanSide(double marketPrice, BookSide orders) {
+        boolean isAsk = orders.isAsk();
+        int largestCount = 0;
+
+        // levels that reach any threshold go to the trade lists right away
+        for (int rank = 0; rank < orders.size(); rank++) {
+            double price = orders.price(rank);
+            double quantity = orders.quantity(rank);
+            double dist = getDistance(price, marketPrice);
+            int touchedCount = thresholds.classify(price * quantity, quantity, dist, levels, touched);
+
+            for (int i = 0; i < touchedCount; i++) {
+                int t = touched[i];
+                if (rescan[t]) tls.get(t).offer(isAsk, price, quantity, dist, levels[t], orders.time(rank));
+            }
+            resetLevels(touchedCount);
+            largestCount = keepLargest(orders, rank, largestCount);
+        }
+
+        // levels of level 0 are ranked by quantity, so only the largest levels of the book can make it into any trade list
+        for (int i = 0; i < largestCount; i++) {
+            int rank = largest[i];
+            double price = orders.price(rank);
+            double quantity = orders.quantity(rank);
+            double dist = getDistance(price, marketPrice);
+            int touchedCount = thresholds.classify(price * quantity, quantity, dist, levels, touched);
+
+            for (int t = 0; t < tls.size(); t++) {
+                if (rescan[t] && levels[t] == 0) tls.get(t).offer(isAsk, price, quantity, dist, 0, orders.time(rank));
+            }
+            resetLevels(touchedCount);
+        }
+    }
+
+    /**
+     * Keeps ranks of the largest levels by quantity (then by price), the same order trades of equal level are ranked by.
+     */
+    private int keepLargest(BookSide orders, int rank, int count) {
+        if (count < largest.length) {
+            largest[count] = rank;
+            return count + 1;
+        }
+
+        int smallest = 0;
+        for (int i = 1; i < count; i++) {
+            if (isLarger(orders, largest[smallest], largest[i])) smallest = i;
+        }
+        if (isLarger(orders, rank, largest[smallest])) {
+            largest[smallest] = rank;
+        }
+        return count;
+    }
+
+    private boolean isLarger(BookSide orders, int rank, int otherRank) {
+        double quantity = orders.quantity(rank);
+        double otherQuantity = orders.quantity(otherRank);
+        if (Double.compare(quantity, otherQuantity) != 0) {
+            return quantity > otherQuantity;
+        }
+        return orders.price(rank) > orders.price(otherRank);
+    }
+
+    private void resetLevels(int touchedCount) {
+        for (int i = 0; i < touchedCount; i++) {
+            levels[touched[i]] = 0;
+        }
+    }
+}
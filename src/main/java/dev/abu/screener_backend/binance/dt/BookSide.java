@@ -0,0 +1,312 @@
+package dev.abu.screener_backend.binance.dt;
+
+import java.util.Arrays;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.round;
+
+/**
+ * One side (bids or asks) of an order book.
+ * <br> <br>
+ * Price levels are kept in parallel primitive arrays (key, price, quantity and the time the level was first seen),
+ * sorted by a tick-normalized {@code long} key from the furthest level to the best one.
+ * The best level is the last element, so inserting or removing levels close to the market price,
+ * where most of the updates happen, only shifts a few elements.
+ * <br> <br>
+ * Public accessors use a rank, where rank 0 is the best price (the highest bid / the lowest ask).
+ * This class is not thread-safe, it's guarded by {@link GeneralTradeList}.
+ */
+public class BookSide {
+
+    /** Binance prices have at most 8 decimal places. */
+    private static final double TICK_SCALE = 1e8;
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final boolean isAsk;
+
+    // sorted ascending; for asks keys are negated, so the best (lowest) ask is the last element too
+    private long[] keys;
+    private double[] prices;
+    private double[] quantities;
+    private long[] times;
+    private int size;
+
+    // levels that were in the book before the last clear(), used to keep first-seen time across re-syncs
+    private long[] retiredKeys = new long[0];
+    private long[] retiredTimes = new long[0];
+    private int retiredSize;
+
+    public BookSide(boolean isAsk) {
+        this(isAsk, DEFAULT_CAPACITY);
+    }
+
+    public BookSide(boolean isAsk, int capacity) {
+        int cap = Math.max(capacity, 1);
+        this.isAsk = isAsk;
+        this.keys = new long[cap];
+        this.prices = new double[cap];
+        this.quantities = new double[cap];
+        this.times = new long[cap];
+    }
+
+    public static long toKey(double price) {
+        return round(price * TICK_SCALE);
+    }
+
+    public boolean isAsk() {
+        return isAsk;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the best price of this side, highest bid or lowest ask.
+     */
+    public double bestPrice() {
+        if (size == 0) {
+            throw new IllegalStateException("Book side is empty.");
+        }
+        return prices[size - 1];
+    }
+
+    public double price(int rank) {
+        return prices[toIndex(rank)];
+    }
+
+    public double quantity(int rank) {
+        return quantities[toIndex(rank)];
+    }
+
+    public long time(int rank) {
+        return times[toIndex(rank)];
+    }
+
+    /**
+     * @return rank of the level with the given price or -1 if there is no such level.
+     */
+    public int rankOf(double price) {
+        int idx = search(sideKey(price));
+        return idx < 0 ? -1 : size - 1 - idx;
+    }
+
+    public boolean contains(double price) {
+        return search(sideKey(price)) >= 0;
+    }
+
+    /**
+     * @return quantity at the given price, 0 if there is no such level.
+     */
+    public double quantityAt(double price) {
+        int idx = search(sideKey(price));
+        return idx < 0 ? 0 : quantities[idx];
+    }
+
+    /**
+     * Replaces quantity of an existing level.
+     * @return false if there is no level with the given price.
+     */
+    public boolean replaceQuantity(double price, double quantity) {
+        int idx = search(sideKey(price));
+        if (idx < 0) return false;
+        quantities[idx] = quantity;
+        return true;
+    }
+
+    /**
+     * Inserts a new level or replaces the quantity of an existing one.
+     * Time of an existing level is never overwritten.
+     * @param time time when the level was first seen, used only if the level is new.
+     */
+    public void put(double price, double quantity, long time) {
+        long key = sideKey(price);
+        int idx = search(key);
+        if (idx >= 0) {
+            quantities[idx] = quantity;
+            return;
+        }
+        insertAt(-idx - 1, key, price, quantity, retiredTime(key, time));
+    }
+
+    public boolean remove(double price) {
+        int idx = search(sideKey(price));
+        if (idx < 0) return false;
+        removeRange(idx, idx + 1);
+        return true;
+    }
+
+    /**
+     * Removes all levels. First-seen times of the removed levels are remembered until the next clear(),
+     * so that the levels that come back with the next snapshot keep their age.
+     * Clearing an empty side keeps the remembered times.
+     */
+    public void clear() {
+        if (size == 0) return;
+        long[] k = retiredKeys;
+        long[] t = retiredTimes;
+        retiredKeys = keys;
+        retiredTimes = times;
+        retiredSize = size;
+
+        keys = k.length >= prices.length ? k : new long[prices.length];
+        times = t.length >= prices.length ? t : new long[prices.length];
+        size = 0;
+    }
+
+    /**
+     * Range query: counts levels starting from the best one whose distance from the market price is less than the given percent.
+     * Runs a binary search, so nothing is iterated or allocated.
+     * @param marketPrice current market price.
+     * @param percent distance in percent from the market price.
+     * @return number of levels within the distance, i.e. ranks [0, result) are all closer than {@code percent}.
+     */
+    public int countWithinDistance(double marketPrice, double percent) {
+        if (percent <= 0 || size == 0) return 0;
+        double bound = isAsk
+                ? marketPrice * (1 + percent / 100)
+                : marketPrice * (1 - percent / 100);
+
+        // first internal index whose price is within the bound (internal order goes from the furthest level to the best one)
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            boolean within = isAsk ? prices[mid] < bound : prices[mid] > bound;
+            if (within) hi = mid;
+            else lo = mid + 1;
+        }
+        return size - lo;
+    }
+
+    /**
+     * Cuts the far end of the book down to {@code maxSize} levels.
+     * Levels are removed in chunks of 1% distance from the furthest one,
+     * and the {@code keepPerChunk} largest levels (by quantity) of every removed chunk are kept.
+     * @param maxSize number of levels the side should be truncated to (not counting the kept levels).
+     * @param marketPrice current market price.
+     * @param keepPerChunk number of the largest levels to keep from every removed chunk.
+     */
+    public void truncate(int maxSize, double marketPrice, int keepPerChunk) {
+        // internal [0, kept) holds the levels that were kept from the already removed chunks
+        int kept = 0;
+        int[] winners = new int[keepPerChunk];
+
+        while (size - kept > maxSize) {
+            int furthestDistance = (int) round(abs((prices[kept] - marketPrice) / marketPrice * 100));
+            int removable = size - kept - maxSize;
+            int chunkEnd = size - countWithinDistance(marketPrice, furthestDistance - 1.5);
+            chunkEnd = Math.max(kept + 1, Math.min(chunkEnd, kept + removable));
+
+            int winnersCount = selectLargest(kept, chunkEnd, winners);
+            Arrays.sort(winners, 0, winnersCount);
+
+            // move the winners to the beginning of the chunk preserving the order, then drop the rest of the chunk
+            for (int i = 0; i < winnersCount; i++) {
+                moveLevel(winners[i], kept + i);
+            }
+            removeRange(kept + winnersCount, chunkEnd);
+            kept += winnersCount;
+        }
+    }
+
+    public BookSide copy() {
+        BookSide copy = new BookSide(isAsk, size);
+        System.arraycopy(keys, 0, copy.keys, 0, size);
+        System.arraycopy(prices, 0, copy.prices, 0, size);
+        System.arraycopy(quantities, 0, copy.quantities, 0, size);
+        System.arraycopy(times, 0, copy.times, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    private int selectLargest(int from, int to, int[] winners) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (count < winners.length) {
+                winners[count++] = i;
+                continue;
+            }
+            int smallest = 0;
+            for (int j = 1; j < count; j++) {
+                if (quantities[winners[j]] < quantities[winners[smallest]]) smallest = j;
+            }
+            if (quantities[i] > quantities[winners[smallest]]) {
+                winners[smallest] = i;
+            }
+        }
+        return count;
+    }
+
+    private void moveLevel(int from, int to) {
+        if (from == to) return;
+        keys[to] = keys[from];
+        prices[to] = prices[from];
+        quantities[to] = quantities[from];
+        times[to] = times[from];
+    }
+
+    private int toIndex(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds for size " + size);
+        }
+        return size - 1 - rank;
+    }
+
+    private long sideKey(double price) {
+        long key = toKey(price);
+        return isAsk ? -key : key;
+    }
+
+    private int search(long key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private long retiredTime(long key, long defaultTime) {
+        if (retiredSize == 0) return defaultTime;
+        int idx = Arrays.binarySearch(retiredKeys, 0, retiredSize, key);
+        return idx < 0 ? defaultTime : retiredTimes[idx];
+    }
+
+    private void insertAt(int idx, long key, double price, double quantity, long time) {
+        ensureCapacity(size + 1);
+        int tail = size - idx;
+        if (tail > 0) {
+            System.arraycopy(keys, idx, keys, idx + 1, tail);
+            System.arraycopy(prices, idx, prices, idx + 1, tail);
+            System.arraycopy(quantities, idx, quantities, idx + 1, tail);
+            System.arraycopy(times, idx, times, idx + 1, tail);
+        }
+        keys[idx] = key;
+        prices[idx] = price;
+        quantities[idx] = quantity;
+        times[idx] = time;
+        size++;
+    }
+
+    private void removeRange(int from, int to) {
+        int count = to - from;
+        if (count <= 0) return;
+        int tail = size - to;
+        if (tail > 0) {
+            System.arraycopy(keys, to, keys, from, tail);
+            System.arraycopy(prices, to, prices, from, tail);
+            System.arraycopy(quantities, to, quantities, from, tail);
+            System.arraycopy(times, to, times, from, tail);
+        }
+        size -= count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= prices.length && capacity <= keys.length && capacity <= times.length) return;
+        int newCapacity = Math.max(capacity, prices.length + (prices.length >> 1));
+        keys = Arrays.copyOf(keys, newCapacity);
+        prices = Arrays.copyOf(prices, newCapacity);
+        quantities = Arrays.copyOf(quantities, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+    }
+}
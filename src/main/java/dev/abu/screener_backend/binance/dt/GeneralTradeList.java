@@ -1,13 +1,10 @@
 package dev.abu.screener_backend.binance.dt;
 
-import dev.abu.screener_backend.binance.entities.PriceLevel;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.*;
-
 import static java.lang.Math.abs;
-import static java.lang.Math.round;
 
 @Getter
 @Slf4j
@@ -16,25 +13,31 @@ public class GeneralTradeList {
     private static final double MAX_PERCENT_DISTANCE_FROM_MARKET = 10;
     private static final int TRUNCATE_THRESHOLD = 10_000;
     private static final int OPTIMAL_THRESHOLD = 10_000;
+    private static final int LEVELS_TO_KEEP_PER_CHUNK = 5;
 
-    // bids sorted desc
-    private final TreeMap<Double, Double> bids = new TreeMap<>(Comparator.reverseOrder());
-    // asks sorted asc
-    private final TreeMap<Double, Double> asks = new TreeMap<>();
-    private final Map<Double, Long> bidsTimeMap = new HashMap<>();
-    private final Map<Double, Long> asksTimeMap = new HashMap<>();
+    // bids, the best (highest) bid has rank 0
+    private final BookSide bids = new BookSide(false);
+    // asks, the best (lowest) ask has rank 0
+    private final BookSide asks = new BookSide(true);
+    // incremented whenever the book is rebuilt (cleared, truncated or loaded from a snapshot), so that
+    // trade lists know when their incrementally maintained state is no longer valid
+    private long rebuildCount;
 
     public synchronized void clear() {
         bids.clear();
         asks.clear();
+        rebuildCount++;
     }
 
     public synchronized void truncateOrderBook() {
-        truncateOrders(bids);
-        truncateOrders(asks);
+        if (bids.isEmpty() || asks.isEmpty()) return;
+        double marketPrice = getMarketPrice();
+        truncateOrders(bids, marketPrice);
+        truncateOrders(asks, marketPrice);
+        rebuildCount++;
     }
 
-    public synchronized void process(List<PriceLevel> bids, List<PriceLevel> asks, boolean initialSnapshot) {
+    public synchronized void process(PriceLevelList bids, PriceLevelList asks, boolean initialSnapshot) {
         if (initialSnapshot) processInitialSnapshot(bids, asks);
         else processUpdate(bids, asks);
     }
@@ -43,92 +46,75 @@ public class GeneralTradeList {
         if (bids.isEmpty() || asks.isEmpty()) {
             throw new IllegalStateException("Order book is not initialized.");
         }
-        return (bids.firstKey() + asks.firstKey()) / 2;
+        return (bids.bestPrice() + asks.bestPrice()) / 2;
     }
 
-    private void truncateOrders(TreeMap<Double, Double> orders) {
-        if (orders.size() < TRUNCATE_THRESHOLD) return;
-
-        PriorityQueue<Map.Entry<Double, Double>> container = new PriorityQueue<>(Comparator.comparingDouble(Map.Entry::getValue));
-        List<Map.Entry<Double, Double>> topEntries = new ArrayList<>();
-
-        while (orders.size() > OPTIMAL_THRESHOLD) {
-            int furthestDistance = (int) round(getOrderDistance(orders.lastKey()));
-            get5LargestEntriesByValue(furthestDistance - 1, orders, container);
-            topEntries.addAll(container);
-            container.clear();
-        }
+    /**
+     * @return a copy of the bids side that can be read without holding the lock.
+     */
+    public synchronized BookSide copyBids() {
+        return bids.copy();
+    }
 
-        topEntries.forEach(e -> orders.put(e.getKey(), e.getValue()));
+    /**
+     * @return a copy of the asks side that can be read without holding the lock.
+     */
+    public synchronized BookSide copyAsks() {
+        return asks.copy();
     }
 
-    private void get5LargestEntriesByValue(int until, TreeMap<Double, Double> orders, PriorityQueue<Map.Entry<Double, Double>> pq) {
-        var it = orders.descendingMap().entrySet().iterator();
-        while (it.hasNext()) {
-            if (orders.size() <= OPTIMAL_THRESHOLD) break;
-            Map.Entry<Double, Double> entry = it.next();
-            int dist = (int) round(getOrderDistance(entry.getKey()));
-            if (dist < until) break;
-            if (pq.size() < 5) {
-                pq.offer(entry);
-            } else if (entry.getValue() > pq.peek().getValue()) {
-                pq.poll();
-                pq.offer(entry);
-            }
-            it.remove();
-        }
+    private void truncateOrders(BookSide orders, double marketPrice) {
+        if (orders.size() < TRUNCATE_THRESHOLD) return;
+        orders.truncate(OPTIMAL_THRESHOLD, marketPrice, LEVELS_TO_KEEP_PER_CHUNK);
     }
 
-    private void processInitialSnapshot(List<PriceLevel> bids, List<PriceLevel> asks) {
-        double marketPrice = (bids.get(0).price() + asks.get(0).price()) / 2;
+    private void processInitialSnapshot(PriceLevelList bids, PriceLevelList asks) {
+        rebuildCount++;
+        double marketPrice = (bids.price(0) + asks.price(0)) / 2;
         processSnapshotLevels(asks, marketPrice, true);
         processSnapshotLevels(bids, marketPrice, false);
     }
 
-    private void processUpdate(List<PriceLevel> bids, List<PriceLevel> asks) {
+    private void processUpdate(PriceLevelList bids, PriceLevelList asks) {
         processUpdateLevels(bids, false);
         processUpdateLevels(asks, true);
     }
 
-    private void processSnapshotLevels(List<PriceLevel> priceLevels, double marketPrice, boolean isAsk) {
-        var map = isAsk ? asks : bids;
-        Map<Double, Long> timeMap = isAsk ? asksTimeMap : bidsTimeMap;
+    private void processSnapshotLevels(PriceLevelList priceLevels, double marketPrice, boolean isAsk) {
+        BookSide side = isAsk ? asks : bids;
+        long now = System.currentTimeMillis();
 
-        for (PriceLevel priceLevel : priceLevels) {
-            double price = priceLevel.price();
-            double qty = priceLevel.quantity();
+        for (int i = 0; i < priceLevels.size(); i++) {
+            double price = priceLevels.price(i);
+            double qty = priceLevels.quantity(i);
 
             double distance = abs((price - marketPrice) / marketPrice * 100);
             if (distance > MAX_PERCENT_DISTANCE_FROM_MARKET) break;
 
-            map.put(price, qty);
-            recordPriceLevel(price, timeMap);
+            side.put(price, qty, now);
         }
     }
 
-    private void processUpdateLevels(List<PriceLevel> priceLevels, boolean isAsk) {
-        TreeMap<Double, Double> map = isAsk ? asks : bids;
-        Map<Double, Long> timeMap = isAsk ? asksTimeMap : bidsTimeMap;
+    private void processUpdateLevels(PriceLevelList priceLevels, boolean isAsk) {
+        BookSide side = isAsk ? asks : bids;
+        long now = System.currentTimeMillis();
 
-        for (PriceLevel priceLevel : priceLevels) {
-            double price = priceLevel.price();
-            double qty = priceLevel.quantity();
+        for (int i = 0; i < priceLevels.size(); i++) {
+            double price = priceLevels.price(i);
+            double qty = priceLevels.quantity(i);
 
             if (qty == 0) {
-                map.remove(price);
-                timeMap.remove(price);
+                side.remove(price);
                 continue;
             }
 
-            if (map.containsKey(price)) {
-                map.put(price, qty);
+            if (side.replaceQuantity(price, qty)) {
                 continue;
             }
 
             double distance = getOrderDistance(price);
             if (distance > MAX_PERCENT_DISTANCE_FROM_MARKET) continue;
-            map.put(price, qty);
-            recordPriceLevel(price, timeMap);
+            side.put(price, qty, now);
         }
     }
 
@@ -136,8 +122,4 @@ public class GeneralTradeList {
         double marketPrice = getMarketPrice();
         return abs((orderPrice - marketPrice) / marketPrice * 100);
     }
-
-    private void recordPriceLevel(double price, Map<Double, Long> timeMap) {
-        timeMap.putIfAbsent(price, System.currentTimeMillis());
-    }
 }
@@ -0,0 +1,106 @@
+package dev.abu.screener_backend.binance.dt;
+
+import dev.abu.screener_backend.settings.Settings;
+import dev.abu.screener_backend.settings.SettingsEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static dev.abu.screener_backend.settings.SettingsType.DOLLAR;
+
+/**
+ * Threshold table built from the settings of all trade lists of one order book.
+ * <br> <br>
+ * Every {@link SettingsEntry} of every trade list becomes a row of the table, and rows are sorted by their volume value
+ * (separately for dollar and coin settings). To classify a price level, a binary search finds the rows whose value
+ * the level's volume reaches, and only those rows are checked for distance. Most levels of a book are small,
+ * so they match no rows at all, regardless of how many trade lists are attached to the book.
+ */
+public class LevelThresholds {
+
+    private final Table dollarTable;
+    private final Table coinTable;
+
+    public LevelThresholds(List<TradeList> tradeLists) {
+        List<Row> dollarRows = new ArrayList<>();
+        List<Row> coinRows = new ArrayList<>();
+
+        for (int t = 0; t < tradeLists.size(); t++) {
+            Settings settings = tradeLists.get(t).getSettings();
+            List<Row> rows = settings.getSettingsType() == DOLLAR ? dollarRows : coinRows;
+            int level = 1;
+            for (SettingsEntry entry : settings.getEntries()) {
+                rows.add(new Row(entry.getValue(), entry.getDistance(), t, level++));
+            }
+        }
+
+        this.dollarTable = new Table(dollarRows);
+        this.coinTable = new Table(coinRows);
+    }
+
+    /**
+     * Finds the level of a price level for every trade list, the same way {@link TradeList#getLevel} does.
+     * @param dollarVolume price * quantity of the level.
+     * @param coinVolume quantity of the level.
+     * @param distance rounded distance of the level from the market price in percent.
+     * @param levels output, level per trade list index. Only indices listed in {@code touched} are written,
+     *               the caller must reset them to 0 after use.
+     * @param touched output, indices of the trade lists for which the level is greater than 0.
+     * @return number of indices written into {@code touched}.
+     */
+    public int classify(double dollarVolume, double coinVolume, double distance, int[] levels, int[] touched) {
+        int count = dollarTable.classify(dollarVolume, distance, levels, touched, 0);
+        return coinTable.classify(coinVolume, distance, levels, touched, count);
+    }
+
+    private record Row(double value, double distance, int tradeList, int level) {}
+
+    private static class Table {
+        private final double[] values;
+        private final double[] distances;
+        private final int[] tradeLists;
+        private final int[] levels;
+
+        Table(List<Row> rows) {
+            rows.sort(Comparator.comparingDouble(Row::value));
+            int n = rows.size();
+            values = new double[n];
+            distances = new double[n];
+            tradeLists = new int[n];
+            levels = new int[n];
+            for (int i = 0; i < n; i++) {
+                Row row = rows.get(i);
+                values[i] = row.value();
+                distances[i] = row.distance();
+                tradeLists[i] = row.tradeList();
+                levels[i] = row.level();
+            }
+        }
+
+        int classify(double volume, double distance, int[] outLevels, int[] touched, int count) {
+            int reached = upperBound(volume);
+            for (int i = 0; i < reached; i++) {
+                if (distance > distances[i]) continue;
+                int t = tradeLists[i];
+                if (outLevels[t] == 0) touched[count++] = t;
+                if (levels[i] > outLevels[t]) outLevels[t] = levels[i];
+            }
+            return count;
+        }
+
+        /**
+         * @return number of rows with value less than or equal to the given volume.
+         */
+        private int upperBound(double volume) {
+            int lo = 0;
+            int hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] <= volume) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
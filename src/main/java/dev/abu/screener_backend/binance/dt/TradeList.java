@@ -11,10 +11,31 @@ import java.util.*;
 import static dev.abu.screener_backend.settings.SettingsType.DOLLAR;
 import static java.lang.Math.*;
 
+/**
+ * Keeps the 5 largest trades on each side of the book for one {@link Settings}.
+ * <br> <br>
+ * Price levels are evaluated by the {@link BookEvaluator} of the order book, which computes distance and level
+ * of each price level once for all trade lists, and then either feeds a full scan
+ * ({@link #beginScan}, {@link #offer}, {@link #endScan}) or the levels changed by the latest update
+ * ({@link #updateLevel}, {@link #removeLevel}, {@link #finishUpdate}).
+ * <br> <br>
+ * The trade list remembers whether any kept trade changed since the last {@link #consumeChanges()},
+ * so that a new DTO is built and distributed only when the clients would see a difference.
+ */
 @Slf4j
 public class TradeList {
 
-    private static final int MAX_TRADES = 5;
+    public static final int MAX_TRADES = 5;
+    /**
+     * Market price drift since the last full scan after which the book is rescanned.
+     * <br> <br>
+     * Distances are rounded to 0.1%, so any price move can push a level that sits near a rounding boundary into
+     * another bucket, and with it into another level. Between full scans, only the kept trades
+     * (refreshed on every update, see {@link #finishUpdate}) and the levels changed by the update are exact.
+     * A level that no update touched and that moved closer to the market can be missing from the trades
+     * until the drift reaches this value.
+     */
+    private static final double RESCAN_PRICE_SHIFT_PERCENT = 0.05;
 
     @Getter private final String mSymbol;
     @Getter private final Settings settings;
@@ -24,7 +45,18 @@ public class TradeList {
     private final LinkedList<Trade> availableObjects;
     private final PriorityQueue<Trade> bids;
     private final PriorityQueue<Trade> asks;
+    private final List<Trade> refreshBuffer = new ArrayList<>(MAX_TRADES);
+    // kept trades at the beginning of a full scan, compared with the result of the scan
+    private final Trade[] scannedBids = newTrades();
+    private final Trade[] scannedAsks = newTrades();
+    private int scannedBidsCount;
+    private int scannedAsksCount;
+    // true if the kept trades changed since the last consumeChanges(), a new trade list starts as changed
+    private boolean isChanged = true;
 
+    // state of the book at the last full scan
+    private long scannedRebuildCount = -1;
+    private double scannedMarketPrice;
 
     public TradeList(Settings settings, String mSymbol) {
         var comparator = Comparator
@@ -45,62 +77,208 @@ public class TradeList {
         }
     }
 
-    public void process(GeneralTradeList gtl) {
-        analyzeNewData(gtl);
+    private static Trade[] newTrades() {
+        Trade[] trades = new Trade[MAX_TRADES];
+        for (int i = 0; i < MAX_TRADES; i++) {
+            trades[i] = new Trade();
+        }
+        return trades;
+    }
+
+    /**
+     * @return true if any kept trade was added, removed or changed since the previous call.
+     */
+    public boolean consumeChanges() {
+        boolean changed = isChanged;
+        isChanged = false;
+        return changed;
     }
 
+    /**
+     * @return a snapshot of the current trades. Trades are copied, since the kept ones are reused by this trade list,
+     * while the DTO is read (and its encoding is cached) by the broadcast thread.
+     */
     public TradeListDTO toDTO() {
-        return new TradeListDTO(mSymbol, new ArrayList<>(bids), new ArrayList<>(asks));
+        return new TradeListDTO(mSymbol, copyTrades(bids), copyTrades(asks));
     }
 
-    private void analyzeNewData(GeneralTradeList gtl) {
+    private static List<Trade> copyTrades(PriorityQueue<Trade> pq) {
+        List<Trade> copy = new ArrayList<>(pq.size());
+        for (Trade trade : pq) {
+            copy.add(new Trade(trade.getPrice(), trade.getQuantity(), trade.getDistance(), trade.getLevel(), trade.getLife()));
+        }
+        return copy;
+    }
+
+    // ************* full scan *************
+
+    /**
+     * Starts a full scan of the book: all kept trades are dropped.
+     */
+    public void beginScan() {
         prevMaxLevel = maxLevel;
         maxLevel = 0;
+        scannedBidsCount = copyValues(bids, scannedBids);
+        scannedAsksCount = copyValues(asks, scannedAsks);
         availableObjects.addAll(bids);
         availableObjects.addAll(asks);
         bids.clear();
         asks.clear();
-        keepLargestTrades(gtl.getMarketPrice(), gtl.getBids(), gtl.getBidsTimeMap(), bids);
-        keepLargestTrades(gtl.getMarketPrice(), gtl.getAsks(), gtl.getAsksTimeMap(), asks);
-    }
-
-    private void keepLargestTrades(
-            double marketPrice,
-            Map<Double, Double> orders,
-            Map<Double, Long> timeDetected,
-            PriorityQueue<Trade> pq
-    ) {
-        for (var priceLevel : orders.entrySet()) {
-
-            double price = priceLevel.getKey();
-            double quantity = priceLevel.getValue();
-            double dist = getDistance(price, marketPrice);
-            int level = getLevel(price, quantity, dist);
-            long time = timeDetected.getOrDefault(price, System.currentTimeMillis());
-
-            // if pq has 5 elements and the smallest element is greater than the current trade,
-            // then there is no need to add it.
-            if (pq.size() == MAX_TRADES && pq.peek().isGreaterThan(level, quantity, price)) {
-                continue;
-            }
+    }
 
-            // otherwise, if pq has 5 elements then remove the smallest element from the pq
-            if (pq.size() == MAX_TRADES) {
-                availableObjects.addLast(pq.poll());
-            }
+    /**
+     * Offers a price level during a full scan.
+     */
+    public void offer(boolean isAsk, double price, double quantity, double dist, int level, long time) {
+        offerTrade(isAsk ? asks : bids, price, quantity, dist, level, time);
+        maxLevel = max(maxLevel, level);
+    }
 
-            Trade trade = availableObjects.pollLast();
-            if (trade == null) {
-                trade = new Trade(); // fallback, should never happen actually
-                log.warn("Trade pool exhausted, creating new Trade instance.");
+    /**
+     * Finishes a full scan and remembers the state of the book it was done for.
+     */
+    public void endScan(double marketPrice, long rebuildCount) {
+        scannedRebuildCount = rebuildCount;
+        scannedMarketPrice = marketPrice;
+        if (!hasSameTrades(bids, scannedBids, scannedBidsCount) || !hasSameTrades(asks, scannedAsks, scannedAsksCount)) {
+            isChanged = true;
+        }
+    }
+
+    private static int copyValues(PriorityQueue<Trade> pq, Trade[] target) {
+        int count = 0;
+        for (Trade trade : pq) {
+            target[count++].set(trade.getPrice(), trade.getQuantity(), trade.getDistance(), trade.getLevel(), trade.getLife());
+        }
+        return count;
+    }
+
+    private static boolean hasSameTrades(PriorityQueue<Trade> pq, Trade[] previous, int previousCount) {
+        if (pq.size() != previousCount) return false;
+        for (Trade trade : pq) {
+            boolean found = false;
+            for (int i = 0; i < previousCount && !found; i++) {
+                found = trade.hasSameValues(previous[i]);
             }
-            trade.set(price, quantity, dist, level, time);
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    // ************* incremental update *************
+
+    /**
+     * @return true if the book was rebuilt or the market price drifted by {@value #RESCAN_PRICE_SHIFT_PERCENT}%
+     * since the last full scan, see {@link #RESCAN_PRICE_SHIFT_PERCENT}.
+     */
+    public boolean isRescanNeeded(double marketPrice, long rebuildCount) {
+        if (rebuildCount != scannedRebuildCount) return true;
+        return abs((marketPrice - scannedMarketPrice) / scannedMarketPrice * 100) >= RESCAN_PRICE_SHIFT_PERCENT;
+    }
+
+    /**
+     * Applies a price level that was changed by the latest update and is still in the book.
+     * @return false if a kept trade shrank, in which case a full scan is needed since the next largest level isn't known.
+     */
+    public boolean updateLevel(boolean isAsk, double price, double quantity, double dist, int level, long time) {
+        PriorityQueue<Trade> pq = isAsk ? asks : bids;
+        Trade kept = findTrade(pq, price);
+        if (kept == null) {
+            if (offerTrade(pq, price, quantity, dist, level, time)) isChanged = true;
+            return true;
+        }
+
+        if (kept.isGreaterThan(level, quantity, price)) return false;
+        if (kept.getQuantity() != quantity || kept.getDistance() != dist || kept.getLevel() != level || kept.getLife() != time) {
+            isChanged = true;
+        }
+        pq.remove(kept);
+        kept.set(price, quantity, dist, level, time);
+        pq.offer(kept);
+        return true;
+    }
+
+    /**
+     * Applies a price level that was removed from the book by the latest update.
+     * @return false if the level was one of the kept trades, in which case a full scan is needed.
+     */
+    public boolean removeLevel(boolean isAsk, double price) {
+        return findTrade(isAsk ? asks : bids, price) == null;
+    }
+
+    /**
+     * Finishes an incremental update: recalculates distance and level of all kept trades with the current
+     * market price, whether the update touched them or not, so the sent distances are never stale.
+     * @return false if any trade got a lower level, in which case a full scan is needed.
+     */
+    public boolean finishUpdate(double marketPrice) {
+        if (!refreshTrades(marketPrice, bids) | !refreshTrades(marketPrice, asks)) {
+            return false;
+        }
+        prevMaxLevel = maxLevel;
+        maxLevel = max(getMaxLevel(bids), getMaxLevel(asks));
+        return true;
+    }
+
+    private boolean refreshTrades(double marketPrice, PriorityQueue<Trade> pq) {
+        refreshBuffer.clear();
+        refreshBuffer.addAll(pq);
+        pq.clear();
+
+        boolean isValid = true;
+        for (Trade trade : refreshBuffer) {
+            double dist = getDistance(trade.getPrice(), marketPrice);
+            int level = getLevel(trade.getPrice(), trade.getQuantity(), dist);
+            if (level < trade.getLevel()) isValid = false;
+            if (dist != trade.getDistance() || level != trade.getLevel()) isChanged = true;
+            trade.setDistance(dist);
+            trade.setLevel(level);
             pq.offer(trade);
-            maxLevel = max(maxLevel, level);
         }
+        return isValid;
+    }
+
+    private Trade findTrade(PriorityQueue<Trade> pq, double price) {
+        for (Trade trade : pq) {
+            if (trade.getPrice() == price) return trade;
+        }
+        return null;
+    }
+
+    private int getMaxLevel(PriorityQueue<Trade> pq) {
+        int level = 0;
+        for (Trade trade : pq) {
+            level = max(level, trade.getLevel());
+        }
+        return level;
+    }
+
+    /**
+     * @return true if the trade was added to the kept trades.
+     */
+    private boolean offerTrade(PriorityQueue<Trade> pq, double price, double quantity, double dist, int level, long time) {
+        // if pq has 5 elements and the smallest element is greater than the current trade,
+        // then there is no need to add it.
+        if (pq.size() == MAX_TRADES && pq.peek().isGreaterThan(level, quantity, price)) {
+            return false;
+        }
+
+        // otherwise, if pq has 5 elements then remove the smallest element from the pq
+        if (pq.size() == MAX_TRADES) {
+            availableObjects.addLast(pq.poll());
+        }
+
+        Trade trade = availableObjects.pollLast();
+        if (trade == null) {
+            trade = new Trade(); // fallback, should never happen actually
+            log.warn("Trade pool exhausted, creating new Trade instance.");
+        }
+        trade.set(price, quantity, dist, level, time);
+        pq.offer(trade);
+        return true;
     }
 
-    private int getLevel(double price, double quantity, double distance) {
+    int getLevel(double price, double quantity, double distance) {
         double volume = settings.getSettingsType() == DOLLAR ? price * quantity : quantity;
         List<SettingsEntry> settingsMap = settings.getEntries();
 
@@ -116,8 +294,8 @@ public class TradeList {
         return level;
     }
 
-    private double getDistance(double price, double marketPrice) {
+    static double getDistance(double price, double marketPrice) {
         double distance = abs((price - marketPrice) / marketPrice * 100);
         return round(distance * 10.0) / 10.0;
     }
-}
\ No newline at end of file
+}
@@ -12,4 +12,26 @@ public record TradeListDTO(String s, Collection<Trade> b, Collection<Trade> a) {
         TradeListDTO other = (TradeListDTO) obj;
         return this.s.equals(other.s);
     }
+
+    /**
+     * @return true if both trade lists contain the same trades, in any order.
+     */
+    public boolean hasSameTrades(TradeListDTO other) {
+        return other != null && hasSameTrades(b, other.b) && hasSameTrades(a, other.a);
+    }
+
+    private static boolean hasSameTrades(Collection<Trade> trades, Collection<Trade> otherTrades) {
+        if (trades.size() != otherTrades.size()) return false;
+        for (Trade trade : trades) {
+            boolean found = false;
+            for (Trade other : otherTrades) {
+                if (trade.hasSameValues(other)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
 }
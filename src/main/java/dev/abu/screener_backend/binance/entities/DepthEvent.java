@@ -1,7 +1,5 @@
 package dev.abu.screener_backend.binance.entities;
 
-import java.util.List;
-
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -9,11 +7,14 @@ import lombok.Getter;
 import lombok.Setter;
 
 @Getter
+@Setter
 public class DepthEvent {
 
-    @Setter
     private boolean isSpot;
 
+    // System.nanoTime() when the event was decoded, 0 for snapshots
+    private long decodedAt;
+
     @JsonProperty("e")
     private String eventType;
 
@@ -36,12 +37,12 @@ public class DepthEvent {
     @JsonProperty("b")
     @JsonAlias({"bids"})
     @JsonDeserialize(using = PriceLevelListDeserializer.class)
-    private List<PriceLevel> bids;
+    private PriceLevelList bids;
 
     @JsonProperty("a")
     @JsonAlias({"asks"})
     @JsonDeserialize(using = PriceLevelListDeserializer.class)
-    private List<PriceLevel> asks;
+    private PriceLevelList asks;
 
     public String getSymbol() {
         return symbol.toLowerCase();
@@ -5,9 +5,9 @@ import lombok.Getter;
 import lombok.Setter;
 
 @Getter
+@Setter
 public class KlineEvent {
 
-    @Setter
     private boolean isSpot;
 
     @JsonProperty("e")
@@ -1,5 +0,0 @@
-package dev.abu.screener_backend.binance.entities;
-
-public record PriceLevel(double price, double quantity) {
-
-}
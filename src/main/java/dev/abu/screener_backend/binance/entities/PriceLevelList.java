@@ -0,0 +1,68 @@
+package dev.abu.screener_backend.binance.entities;
+
+import java.util.Arrays;
+
+/**
+ * List of price levels (bids or asks) of a depth event.
+ * Prices and quantities are kept in two parallel primitive arrays,
+ * so that a depth update with hundreds of levels doesn't allocate an object per level.
+ */
+public class PriceLevelList {
+
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private double[] prices;
+    private double[] quantities;
+    private int size;
+
+    public PriceLevelList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PriceLevelList(int capacity) {
+        int cap = Math.max(capacity, 1);
+        this.prices = new double[cap];
+        this.quantities = new double[cap];
+    }
+
+    public void add(double price, double quantity) {
+        if (size == prices.length) {
+            int newCapacity = prices.length << 1;
+            prices = Arrays.copyOf(prices, newCapacity);
+            quantities = Arrays.copyOf(quantities, newCapacity);
+        }
+        prices[size] = price;
+        quantities[size] = quantity;
+        size++;
+    }
+
+    public double price(int index) {
+        return prices[index];
+    }
+
+    public double quantity(int index) {
+        return quantities[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('[').append(prices[i]).append(", ").append(quantities[i]).append(']');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -1,28 +1,112 @@
 package dev.abu.screener_backend.binance.entities;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
-public class PriceLevelListDeserializer extends JsonDeserializer<List<PriceLevel>> {
+public class PriceLevelListDeserializer extends JsonDeserializer<PriceLevelList> {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_MANTISSA_DIGITS = 17;
 
     @Override
-    public List<PriceLevel> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-        List<PriceLevel> result = new ArrayList<>();
-        JsonNode node = p.getCodec().readTree(p);
-
-        for (JsonNode level : node) {
-            double price = level.get(0).asDouble();
-            double quantity = level.get(1).asDouble();
-            result.add(new PriceLevel(price, quantity));
+    public PriceLevelList deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return read(p);
+    }
+
+    /**
+     * Reads an array of price levels such as {@code [["0.0024","10"],["0.0025","100"]]}
+     * token by token, without building an intermediate tree.
+     * The parser must be positioned at the START_ARRAY token and is left at the matching END_ARRAY token.
+     * @param p parser positioned at the start of the array.
+     * @return parsed price levels, empty if the value is not an array.
+     */
+    public static PriceLevelList read(JsonParser p) throws IOException {
+        PriceLevelList levels = new PriceLevelList();
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return levels;
         }
 
-        return result;
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            p.nextToken();
+            double price = readDouble(p);
+            p.nextToken();
+            double quantity = readDouble(p);
+            // skip anything that comes after [price, qty] in the level
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                p.skipChildren();
+            }
+            levels.add(price, quantity);
+        }
+        return levels;
+    }
+
+    /**
+     * Reads the current token as a double. Binance sends prices and quantities as strings,
+     * so they are parsed straight from the parser's character buffer.
+     */
+    public static double readDouble(JsonParser p) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return parseDouble(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return p.getDoubleValue();
+        }
+        throw new IOException("Expected a number but got " + token);
     }
-}
 
+    /**
+     * Parses a plain decimal such as "0.00123000" without creating a String.
+     * Whenever the value can be computed exactly as mantissa / 10^scale (up to 2^53 and 10^22),
+     * the result is the same as {@link Double#parseDouble(String)} would give,
+     * otherwise parsing falls back to it.
+     */
+    static double parseDouble(char[] buf, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && buf[i] == '-') {
+            negative = true;
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean hasDigits = false;
+        boolean hasDot = false;
+
+        for (; i < end; i++) {
+            char c = buf[i];
+            if (c >= '0' && c <= '9') {
+                if (digits >= MAX_MANTISSA_DIGITS) {
+                    return Double.parseDouble(new String(buf, offset, length));
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+                if (hasDot) scale++;
+                hasDigits = true;
+            } else if (c == '.' && !hasDot) {
+                hasDot = true;
+            } else {
+                return Double.parseDouble(new String(buf, offset, length));
+            }
+        }
+
+        if (!hasDigits || mantissa > MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(buf, offset, length));
+        }
+
+        double value = scale == 0 ? (double) mantissa : mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+}
@@ -29,6 +29,17 @@ public class Trade {
         this.life = life;
     }
 
+    /**
+     * @return true if all fields of the trades are equal, i.e. clients would receive the same trade.
+     */
+    public boolean hasSameValues(Trade other) {
+        return price == other.price
+                && quantity == other.quantity
+                && distance == other.distance
+                && level == other.level
+                && life == other.life;
+    }
+
     public boolean isGreaterThan(int level, double quantity, double price) {
         if (this.level != level) {
             return this.level > level;
@@ -7,16 +7,111 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 import java.io.IOException;
 import java.math.BigDecimal;
 
+/**
+ * Writes a trade as an array of strings, e.g. {@code ["2500.25","12.5","0.8","2","1700000000000"]}.
+ * <br> <br>
+ * The text is the same as {@code BigDecimal.valueOf(x).toPlainString()}, but the digits are written
+ * into a per-thread buffer instead of creating a {@link BigDecimal} and a {@link String} for every field.
+ * Doubles that can't be written as a short plain decimal fall back to {@link BigDecimal}.
+ */
 public class TradeSerializer extends JsonSerializer<Trade> {
 
+    private static final int MAX_SCALE = 15;
+    private static final long MAX_UNSCALED = 1_000_000_000_000_000L;
+    private static final double MIN_PLAIN = 1e-3;
+    private static final double MAX_PLAIN = 1e7;
+    private static final double[] POW10 = new double[MAX_SCALE + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[32]);
+
     @Override
     public void serialize(Trade trade, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        char[] buf = BUFFER.get();
         gen.writeStartArray();
-        gen.writeString(BigDecimal.valueOf(trade.getPrice()).toPlainString());
-        gen.writeString(BigDecimal.valueOf(trade.getQuantity()).toPlainString());
-        gen.writeString(BigDecimal.valueOf(trade.getDistance()).toPlainString());
-        gen.writeString(BigDecimal.valueOf(trade.getLevel()).toPlainString());
-        gen.writeString(BigDecimal.valueOf(trade.getLife()).toPlainString());
+        writeDouble(gen, buf, trade.getPrice());
+        writeDouble(gen, buf, trade.getQuantity());
+        writeDouble(gen, buf, trade.getDistance());
+        writeLong(gen, buf, trade.getLevel());
+        writeLong(gen, buf, trade.getLife());
         gen.writeEndArray();
     }
+
+    private static void writeDouble(JsonGenerator gen, char[] buf, double value) throws IOException {
+        int len = formatDouble(buf, value);
+        if (len < 0) {
+            gen.writeString(BigDecimal.valueOf(value).toPlainString());
+        } else {
+            gen.writeString(buf, buf.length - len, len);
+        }
+    }
+
+    private static void writeLong(JsonGenerator gen, char[] buf, long value) throws IOException {
+        int len = formatLong(buf, value);
+        gen.writeString(buf, buf.length - len, len);
+    }
+
+    /**
+     * Writes the shortest decimal that parses back to the given value to the end of the buffer,
+     * with at least one digit after the point, like {@link Double#toString(double)} does for this range.
+     * @return the number of chars written, or -1 if the value is out of the supported range.
+     */
+    static int formatDouble(char[] buf, double value) {
+        if (value == 0) {
+            buf[buf.length - 3] = '0';
+            buf[buf.length - 2] = '.';
+            buf[buf.length - 1] = '0';
+            return 3;
+        }
+
+        double abs = Math.abs(value);
+        if (!(abs >= MIN_PLAIN && abs < MAX_PLAIN)) return -1;
+
+        // the smallest scale at which the decimal parses back to the same double
+        for (int scale = 1; scale <= MAX_SCALE; scale++) {
+            double scaled = Math.rint(abs * POW10[scale]);
+            if (scaled >= MAX_UNSCALED) return -1;
+            if (scaled / POW10[scale] == abs) {
+                return formatDecimal(buf, (long) scaled, scale, value < 0);
+            }
+        }
+        return -1;
+    }
+
+    private static int formatDecimal(char[] buf, long unscaled, int scale, boolean isNegative) {
+        int pos = buf.length;
+        for (int i = 0; i < scale; i++) {
+            buf[--pos] = (char) ('0' + unscaled % 10);
+            unscaled /= 10;
+        }
+        buf[--pos] = '.';
+        do {
+            buf[--pos] = (char) ('0' + unscaled % 10);
+            unscaled /= 10;
+        } while (unscaled != 0);
+        if (isNegative) buf[--pos] = '-';
+        return buf.length - pos;
+    }
+
+    static int formatLong(char[] buf, long value) {
+        if (value == Long.MIN_VALUE) {
+            String text = Long.toString(value);
+            text.getChars(0, text.length(), buf, buf.length - text.length());
+            return text.length();
+        }
+        int pos = buf.length;
+        long abs = Math.abs(value);
+        do {
+            buf[--pos] = (char) ('0' + abs % 10);
+            abs /= 10;
+        } while (abs != 0);
+        if (value < 0) buf[--pos] = '-';
+        return buf.length - pos;
+    }
 }
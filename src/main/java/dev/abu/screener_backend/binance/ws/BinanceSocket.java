@@ -2,25 +2,40 @@ package dev.abu.screener_backend.binance.ws;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.websocket.api.Frame;
 import org.eclipse.jetty.websocket.api.Session;
-import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WebSocketFrameListener;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
+/**
+ * Jetty endpoint of one Binance websocket connection.
+ * <br> <br>
+ * Since the endpoint is a frame listener and not a message listener, Jetty doesn't assemble
+ * text messages into strings: the payload of each frame is copied into a pooled buffer, and the buffer is handed
+ * over to the decoder thread once the final frame of the message has arrived.
+ * <br> <br>
+ * The queue of the decoder thread accepts one producer only, so a socket that is replaced by the socket of
+ * a new connection is {@link #deactivate() deactivated} first.
+ */
 @Slf4j
-public class BinanceSocket extends WebSocketAdapter {
-
-    private final static ExecutorService worker = Executors.newSingleThreadExecutor();
+public class BinanceSocket implements WebSocketFrameListener {
 
     private final String name;
     private final WSMessageHandler messageHandler;
     private final Runnable reconnect;
     @Getter private Session session;
 
+    // message being received, accessed only by the Jetty thread of the connection
+    private byte[] buffer;
+    private int length;
+    private long receivedAt;
+    private long receivedTime;
+    // guarded by the lock of the socket
+    private boolean isActive = true;
+
     public BinanceSocket(String name, WSMessageHandler messageHandler, Runnable reconnect) {
         this.name = name;
         this.messageHandler = messageHandler;
@@ -28,18 +43,72 @@ public class BinanceSocket extends WebSocketAdapter {
     }
 
     @Override
-    public void onWebSocketText(String message) {
-        worker.submit(() -> messageHandler.handleMessage(message));
+    public void onWebSocketFrame(Frame frame) {
+        switch (frame.getType()) {
+            case TEXT, BINARY -> {
+                buffer = messageHandler.acquireBuffer();
+                length = 0;
+                receivedAt = System.nanoTime();
+                receivedTime = System.currentTimeMillis();
+            }
+            case CONTINUATION -> {
+                if (buffer == null) return;
+            }
+            default -> {
+                // control frames, pings are answered by Jetty
+                return;
+            }
+        }
+
+        append(frame.getPayload());
+        if (frame.isFin()) {
+            synchronized (this) {
+                // only puts the message into the queue of the decoder thread of this connection
+                if (isActive) messageHandler.handleMessage(buffer, length, receivedAt, receivedTime);
+            }
+            buffer = null;
+        }
+    }
+
+    /**
+     * Copies the payload, which is valid only until the frame callback returns.
+     */
+    private void append(ByteBuffer payload) {
+        if (payload == null) return;
+        int remaining = payload.remaining();
+        buffer = MessageBufferPool.grow(buffer, length, length + remaining);
+        payload.get(payload.position(), buffer, length, remaining);
+        length += remaining;
+    }
+
+    /**
+     * Stops handing messages over and closes the connection, if it is or gets connected.
+     * Once this method returns, the socket doesn't put any message into the queue of the decoder thread,
+     * and it doesn't trigger reconnects anymore.
+     */
+    public synchronized void deactivate() {
+        isActive = false;
+        if (session != null && session.isOpen()) session.close();
+    }
+
+    private synchronized boolean isActive() {
+        return isActive;
     }
 
     @Override
     public void onWebSocketError(Throwable cause) {
+        if (!isActive()) return;
         log.error("[{}] WebSocket error", name, cause);
         reconnect.run();
     }
 
     @Override
-    public void onWebSocketConnect(Session session) {
+    public synchronized void onWebSocketConnect(Session session) {
+        if (!isActive) {
+            // the connect attempt was given up on
+            session.close();
+            return;
+        }
         log.info("[{}] Binance webSocket connected", name);
         this.session = session;
         session.setIdleTimeout(Duration.ofMinutes(10));
@@ -47,6 +116,7 @@ public class BinanceSocket extends WebSocketAdapter {
 
     @Override
     public void onWebSocketClose(int statusCode, String reason) {
+        if (!isActive()) return;
         log.warn("[{}] WebSocket closed: {} [{}]", name, reason, statusCode);
         reconnect.run();
     }
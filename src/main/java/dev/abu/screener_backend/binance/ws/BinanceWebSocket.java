@@ -16,40 +16,49 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import static dev.abu.screener_backend.utils.EnvParams.STREAM_FUT_URL;
-import static dev.abu.screener_backend.utils.EnvParams.STREAM_SPOT_URL;
+import static dev.abu.screener_backend.utils.EnvParams.*;
 
+/**
+ * Binance websocket connections of both markets.
+ * <br> <br>
+ * Each market has several connections, see {@code binance.stream.spot-connections} and
+ * {@code binance.stream.fut-connections} of config.properties, and every connection has its own decoder thread.
+ * Symbols are distributed between the connections of a market by their message rate, see {@link ConnectionBalancer},
+ * and rebalanced every {@code binance.stream.rebalance-interval} minutes.
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class BinanceWebSocket {
 
     private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private static final int futWsCount = 1;
     private static final URI spotEndpoint = URI.create(STREAM_SPOT_URL);
     private static final URI futEndpoint = URI.create(STREAM_FUT_URL);
+    // the first rebalance waits until the message rates are known
+    private static final long REBALANCE_DELAY_MINUTES = 10;
 
     private final ObjectMapper objectMapper;
     private final WebSocketClient client;
     private final OBService obService;
     private final WSMessageFilter filter;
 
-    private WebSocketManager spotWs;
+    private List<WebSocketManager> spotWebSockets;
     private List<WebSocketManager> futWebSockets;
+    private ConnectionBalancer spotBalancer;
+    private ConnectionBalancer futBalancer;
 
     @PostConstruct
     public void start() {
-        futWebSockets = new ArrayList<>();
-        WSMessageHandler spotMsgHandler = new WSMessageHandler(filter, true);
-        WSMessageHandler futMsgHandler = new WSMessageHandler(filter, false);
-
-        spotWs = new WebSocketManager(client, spotEndpoint, "SPOT", spotMsgHandler, objectMapper, scheduler);
-        spotWs.start();
-        for (int i = 1; i <= futWsCount; i++) {
-            var futWs = new WebSocketManager(client, futEndpoint, "FUT" + i, futMsgHandler, objectMapper, scheduler);
-            futWs.start();
-            futWebSockets.add(futWs);
+        int spotCount = Math.max(1, SPOT_CONNECTIONS);
+        int futCount = Math.max(1, FUT_CONNECTIONS);
+        spotBalancer = new ConnectionBalancer("SPOT", spotCount, REBALANCE_MOVES);
+        futBalancer = new ConnectionBalancer("FUT", futCount, REBALANCE_MOVES);
+        spotWebSockets = startConnections(spotEndpoint, "SPOT", spotCount, true, spotBalancer);
+        futWebSockets = startConnections(futEndpoint, "FUT", futCount, false, futBalancer);
+        if (REBALANCE_INTERVAL > 0 && REBALANCE_MOVES > 0) {
+            scheduler.scheduleWithFixedDelay(this::rebalance, REBALANCE_DELAY_MINUTES, REBALANCE_INTERVAL, TimeUnit.MINUTES);
         }
     }
 
@@ -58,33 +67,63 @@ public class BinanceWebSocket {
         scheduler.shutdownNow();
     }
 
+    /**
+     * Moves symbols from the busiest connections to the least busy ones.
+     */
+    public void rebalance() {
+        try {
+            rebalance(spotBalancer, spotWebSockets);
+            rebalance(futBalancer, futWebSockets);
+        } catch (Exception e) {
+            log.error("Failed to rebalance websocket connections", e);
+        }
+    }
+
     public void subscribeToDepth(Collection<String> symbols, boolean isSpot) {
         obService.prepareOrderBooks(symbols, isSpot);
-        List<String> streams = new ArrayList<>(symbols.size());
-        String prefix = isSpot ? "@depth" : "@depth@500ms";
-        symbols.forEach(symbol -> streams.add(symbol + prefix));
-        subscribe(streams, isSpot);
+        String suffix = isSpot ? "@depth" : "@depth@500ms";
+        subscribe(symbols, suffix, isSpot);
     }
 
     public void subscribeToKline(Collection<String> symbols, KlineInterval interval, boolean isSpot) {
         obService.prepareOrderBooks(symbols, isSpot);
-        List<String> streams = new ArrayList<>(symbols.size());
-        String prefix = "@kline_" + interval.getCode();
-        symbols.forEach(symbol -> streams.add(symbol + prefix));
-        subscribe(streams, isSpot);
+        String suffix = "@kline_" + interval.getCode();
+        subscribe(symbols, suffix, isSpot);
     }
 
-    private void subscribe(List<String> streams, boolean isSpot) {
-        if (isSpot) {
-            spotWs.subscribe(streams);
-            return;
+    private void subscribe(Collection<String> symbols, String suffix, boolean isSpot) {
+        List<WebSocketManager> webSockets = isSpot ? spotWebSockets : futWebSockets;
+        ConnectionBalancer balancer = isSpot ? spotBalancer : futBalancer;
+
+        List<List<String>> streams = new ArrayList<>();
+        for (int i = 0; i < webSockets.size(); i++) {
+            streams.add(new ArrayList<>());
+        }
+        balancer.assign(symbols).forEach((symbol, connection) -> streams.get(connection).add(symbol + suffix));
+        for (int i = 0; i < webSockets.size(); i++) {
+            webSockets.get(i).subscribe(streams.get(i));
         }
+    }
+
+    private void rebalance(ConnectionBalancer balancer, List<WebSocketManager> webSockets) {
+        for (ConnectionBalancer.Move move : balancer.rebalance()) {
+            WebSocketManager from = webSockets.get(move.from());
+            List<String> streams = from.getStreams(move.symbol());
+            // subscribe first, so that no events are missed in between
+            webSockets.get(move.to()).subscribe(streams);
+            from.unsubscribe(streams);
+        }
+    }
 
-        int chunkSize = (int) Math.ceil((double) streams.size() / futWsCount);
-        int c = 0;
-        for (int i = 0; i < streams.size(); i+=chunkSize, c++) {
-            List<String> subStreams = streams.subList(i, Math.min(streams.size(), i + chunkSize));
-            futWebSockets.get(c).subscribe(subStreams);
+    private List<WebSocketManager> startConnections(URI endpoint, String market, int count, boolean isSpot, ConnectionBalancer balancer) {
+        List<WebSocketManager> webSockets = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String name = market + i;
+            WSMessageHandler handler = new WSMessageHandler(filter, isSpot, name, balancer::record);
+            var webSocket = new WebSocketManager(client, endpoint, name, handler, objectMapper, scheduler);
+            webSocket.start();
+            webSockets.add(webSocket);
         }
+        return webSockets;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+package dev.abu.screener_backend.binance.ws;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distributes the symbols of one market between its websocket connections by the observed message rate.
+ * <br> <br>
+ * All streams of a symbol are kept on the same connection. New symbols are placed on the least loaded connection,
+ * starting with the busiest symbols, and stay there. {@link #rebalance()} moves a few symbols from the most loaded
+ * connection to the least loaded one when the load is uneven. The events of a moved symbol arrive on both
+ * connections for a moment: the order book skips the duplicates, but re-syncs if the events of the two connections
+ * interleave with a gap.
+ */
+@Slf4j
+class ConnectionBalancer {
+
+    private static final double MAX_IMBALANCE = 1.25;
+
+    private final String market;
+    private final int connections;
+    private final int maxMoves;
+    // accessed only while holding the lock of the balancer
+    private final Map<String, Integer> assignments = new HashMap<>();
+    private final Map<String, Double> rates = new HashMap<>();
+    private long windowStart = System.currentTimeMillis();
+
+    private final Map<String, LongAdder> messageCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxMoves max number of symbols moved by one {@link #rebalance()}.
+     */
+    ConnectionBalancer(String market, int connections, int maxMoves) {
+        this.market = market;
+        this.connections = connections;
+        this.maxMoves = maxMoves;
+    }
+
+    /**
+     * Called by the decoder threads for every message.
+     */
+    void record(String symbol) {
+        LongAdder count = messageCounts.get(symbol);
+        if (count == null) {
+            count = messageCounts.computeIfAbsent(symbol, s -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * @return connection index of every given symbol, new symbols are assigned to the least loaded connections.
+     */
+    synchronized Map<String, Integer> assign(Collection<String> symbols) {
+        List<String> newSymbols = new ArrayList<>();
+        for (String symbol : symbols) {
+            if (!assignments.containsKey(symbol)) newSymbols.add(symbol);
+        }
+
+        if (!newSymbols.isEmpty()) {
+            double defaultRate = getDefaultRate();
+            double[] loads = getLoads();
+            newSymbols.sort(Comparator.comparingDouble((String s) -> rates.getOrDefault(s, defaultRate)).reversed());
+            for (String symbol : newSymbols) {
+                int connection = indexOfMin(loads);
+                assignments.put(symbol, connection);
+                loads[connection] += rates.getOrDefault(symbol, defaultRate);
+            }
+        }
+
+        Map<String, Integer> result = new HashMap<>();
+        for (String symbol : symbols) {
+            result.put(symbol, assignments.get(symbol));
+        }
+        return result;
+    }
+
+    /**
+     * Updates the message rates from the counts since the previous call and moves up to {@code maxMoves} symbols
+     * from the most loaded connection to the least loaded one, while the most loaded connection receives more than
+     * {@value #MAX_IMBALANCE} times the average.
+     * @return the moved symbols.
+     */
+    synchronized List<Move> rebalance() {
+        updateRates();
+        List<Move> moves = new ArrayList<>();
+        if (connections < 2) return moves;
+
+        double[] loads = getLoads();
+        double average = Arrays.stream(loads).sum() / connections;
+        while (moves.size() < maxMoves) {
+            int from = indexOfMax(loads);
+            int to = indexOfMin(loads);
+            if (loads[from] <= average * MAX_IMBALANCE) break;
+
+            // the symbol that brings both connections closest to each other
+            double gap = loads[from] - loads[to];
+            String best = null;
+            double bestRate = 0;
+            for (var entry : assignments.entrySet()) {
+                if (entry.getValue() != from) continue;
+                double rate = rates.getOrDefault(entry.getKey(), 0.0);
+                if (rate < gap && Math.abs(gap - 2 * rate) < Math.abs(gap - 2 * bestRate)) {
+                    best = entry.getKey();
+                    bestRate = rate;
+                }
+            }
+            if (best == null || bestRate == 0) break;
+
+            assignments.put(best, to);
+            loads[from] -= bestRate;
+            loads[to] += bestRate;
+            moves.add(new Move(best, from, to));
+        }
+
+        log.info("{} connection loads (msg/s): {}, moved {} symbols", market, Arrays.toString(round(loads)), moves.size());
+        return moves;
+    }
+
+    private void updateRates() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, (now - windowStart) / 1000.0);
+        windowStart = now;
+        for (var entry : messageCounts.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().sumThenReset() / seconds);
+        }
+    }
+
+    private double[] getLoads() {
+        double[] loads = new double[connections];
+        double defaultRate = getDefaultRate();
+        for (var entry : assignments.entrySet()) {
+            loads[entry.getValue()] += rates.getOrDefault(entry.getKey(), defaultRate);
+        }
+        return loads;
+    }
+
+    /**
+     * @return rate assumed for symbols that haven't been observed yet: the average of the observed rates, or 1.
+     */
+    private double getDefaultRate() {
+        return rates.values().stream().mapToDouble(Double::doubleValue).filter(rate -> rate > 0).average().orElse(1);
+    }
+
+    private static int indexOfMin(double[] values) {
+        int index = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[index]) index = i;
+        }
+        return index;
+    }
+
+    private static int indexOfMax(double[] values) {
+        int index = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[index]) index = i;
+        }
+        return index;
+    }
+
+    private static long[] round(double[] values) {
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Math.round(values[i]);
+        }
+        return result;
+    }
+
+    record Move(String symbol, int from, int to) {}
+}
@@ -0,0 +1,339 @@
+package dev.abu.screener_backend.binance.ws;
+
+import dev.abu.screener_backend.binance.OBService;
+import dev.abu.screener_backend.binance.OrderBook;
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.metrics.LatencyMetrics;
+import dev.abu.screener_backend.metrics.OverflowMetrics;
+import dev.abu.screener_backend.utils.ConsumerWaiter;
+import dev.abu.screener_backend.utils.SpscRingBuffer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static dev.abu.screener_backend.binance.dt.AsyncOBScheduler.getNumOfScheduledTasks;
+import static dev.abu.screener_backend.metrics.LatencyStage.QUEUE_WAIT;
+import static dev.abu.screener_backend.metrics.OverflowAction.DEPTH_COALESCED;
+import static dev.abu.screener_backend.metrics.OverflowAction.DEPTH_DROPPED;
+
+/**
+ * A single-threaded consumer of depth events for a subset of symbols.
+ * <br> <br>
+ * {@link DepthEventConsumer} routes all events of one symbol to the same shard,
+ * so every order book is still updated by one thread only and in the order the events were received.
+ * <br> <br>
+ * Every producer thread has its own {@link SpscRingBuffer} in the shard, see {@link #newProducer()},
+ * and the consumer thread takes events from the buffers in turn.
+ * <br> <br>
+ * Consecutive diffs of one order book in a batch are merged before they are applied, so a book that fell behind
+ * is updated, evaluated and distributed once per batch instead of once per diff.
+ */
+@Slf4j
+class DepthConsumerShard {
+
+    private static final int SCHEDULE_THRESHOLD = 115;
+    private static final int MAX_BATCH_SIZE = 1_000;
+    private static final long HELD_EVENTS_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Getter
+    private final int id;
+    private final int producerCapacity;
+    private final ConsumerWaiter waiter = new ConsumerWaiter();
+    private final BooleanSupplier hasEvents = this::hasEvents;
+    // replaced on every registration of a producer
+    private volatile List<Producer> producers = List.of();
+    // order books that hold events in their replay buffer, accessed only by the consumer thread
+    private final Set<OrderBook> resyncingBooks = new HashSet<>();
+    // latest, possibly merged, diff of every order book in the current batch, accessed only by the consumer thread
+    private final Map<String, DepthEvent> batch = new LinkedHashMap<>();
+    private final OBService obService;
+
+    // metrics since the last call of resetMetrics()
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    /**
+     * @param producerCapacity capacity of the buffer of each producer.
+     */
+    DepthConsumerShard(int id, int producerCapacity, OBService obService) {
+        this.id = id;
+        this.producerCapacity = producerCapacity;
+        this.obService = obService;
+        Thread consumerThread = new Thread(this::consume);
+        consumerThread.setName("depth-consumer-" + id);
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * @return a new buffer of this shard, which must be used by one producer thread only.
+     */
+    synchronized Producer newProducer() {
+        Producer producer = new Producer(id, new SpscRingBuffer<>(producerCapacity, Slot::new, waiter));
+        List<Producer> list = new ArrayList<>(producers);
+        list.add(producer);
+        producers = List.copyOf(list);
+        return producer;
+    }
+
+    int getQueueSize() {
+        int size = 0;
+        List<Producer> producers = this.producers;
+        for (int i = 0; i < producers.size(); i++) {
+            size += producers.get(i).ring.size();
+        }
+        return size;
+    }
+
+    int getResyncingCount() {
+        return resyncingBooks.size();
+    }
+
+    long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * @return number of diffs that were merged into the previous diff of their order book.
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return the largest delay in ms between the event time set by Binance and the time the event was processed.
+     */
+    long getMaxLag() {
+        return maxLag.get();
+    }
+
+    void resetMetrics() {
+        processedCount.set(0);
+        coalescedCount.set(0);
+        maxLag.set(0);
+    }
+
+    /**
+     * Consumer loop. Processes everything queued so far, up to {@value #MAX_BATCH_SIZE} events, as one batch
+     * and waits for new events when there are none. While some order books hold events in their replay buffers,
+     * the wait is limited, so the buffered events are replayed as soon as the snapshot is applied,
+     * even if no new events arrive.
+     */
+    private void consume() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                int processed = processBatch();
+                replayResyncingBooks();
+                if (processed == 0) {
+                    waiter.await(hasEvents, resyncingBooks.isEmpty() ? IDLE_TIMEOUT_NANOS : HELD_EVENTS_RETRY_NANOS);
+                }
+            } catch (Exception e) {
+                log.error("Unexpected error in depth consumer shard {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Takes one event from each producer in turn, so that a busy connection doesn't delay the others.
+     * The events of one order book come from the same producer, so their order is kept.
+     * The collected diffs are applied once all buffers are empty or the batch is full.
+     * @return number of taken events.
+     */
+    private int processBatch() {
+        List<Producer> producers = this.producers;
+        int processed = 0;
+        boolean hasMore = true;
+        while (hasMore && processed < MAX_BATCH_SIZE) {
+            hasMore = false;
+            for (int i = 0; i < producers.size(); i++) {
+                SpscRingBuffer<Slot> ring = producers.get(i).ring;
+                Slot slot = ring.peek();
+                if (slot == null) continue;
+                try {
+                    collect(slot.depthEvent, slot.mSymbol);
+                } finally {
+                    slot.depthEvent = null;
+                    slot.mSymbol = null;
+                    ring.release();
+                }
+                processed++;
+                hasMore = true;
+            }
+        }
+
+        try {
+            for (Map.Entry<String, DepthEvent> entry : batch.entrySet()) {
+                handleMessage(entry.getValue(), entry.getKey());
+            }
+        } finally {
+            batch.clear();
+        }
+        return processed;
+    }
+
+    /**
+     * Adds the event to the batch, merging it into the previous diff of its order book if it continues that diff.
+     */
+    private void collect(DepthEvent depthEvent, String mSymbol) {
+        DepthEvent previous = batch.get(mSymbol);
+        if (previous == null) {
+            batch.put(mSymbol, depthEvent);
+        } else if (DepthEventMerger.isContiguous(previous, depthEvent)) {
+            batch.put(mSymbol, DepthEventMerger.merge(previous, depthEvent));
+            coalescedCount.incrementAndGet();
+        } else if (depthEvent.getFinalUpdateId() <= previous.getFinalUpdateId()) {
+            // already collected, the symbol is being moved to another connection
+            return;
+        } else {
+            // the order book handles the gap
+            handleMessage(previous, mSymbol);
+            batch.put(mSymbol, depthEvent);
+        }
+    }
+
+    private boolean hasEvents() {
+        List<Producer> producers = this.producers;
+        for (int i = 0; i < producers.size(); i++) {
+            if (!producers.get(i).ring.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replays buffered events of the order books whose snapshot has been applied.
+     * Only the books that are re-syncing are visited.
+     */
+    private void replayResyncingBooks() {
+        Iterator<OrderBook> it = resyncingBooks.iterator();
+        while (it.hasNext()) {
+            OrderBook orderBook = it.next();
+            try {
+                orderBook.replayBufferedEvents();
+            } catch (Exception e) {
+                log.error("Failed to replay buffered events of {}", orderBook.getMSymbol(), e);
+            }
+            if (!orderBook.hasBufferedEvents()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Method called by a consumer thread from a consume() method.
+     * @param depthEvent POJO object representing a deserialized depth update from a websocket
+     * @param mSymbol market symbol of the event, or null if the event has no symbol
+     */
+    private void handleMessage(DepthEvent depthEvent, String mSymbol) {
+        try {
+            if (depthEvent.getDecodedAt() != 0) {
+                LatencyMetrics.recordSince(QUEUE_WAIT, depthEvent.isSpot(), depthEvent.getDecodedAt());
+            }
+            String eventType = depthEvent.getEventType();
+            if (eventType == null || !eventType.equals("depthUpdate")) {
+                return;
+            }
+
+            if (mSymbol == null) {
+                return;
+            }
+
+            boolean isSpot = depthEvent.getLastUpdateId() == null;
+            OrderBook orderBook = obService.getOrderBook(mSymbol);
+            if (orderBook == null) {
+                return;
+            }
+
+            if (orderBook.isScheduleNeeded() && !orderBook.hasBufferedEvents() && getNumOfScheduledTasks(isSpot) > SCHEDULE_THRESHOLD) {
+                return;
+            }
+
+            orderBook.process(depthEvent);
+            updateMetrics(depthEvent);
+            if (orderBook.hasBufferedEvents()) {
+                resyncingBooks.add(orderBook);
+            }
+        } catch (Exception e) {
+            log.error("Failed to read json data - {}", depthEvent, e);
+        }
+    }
+
+    private void updateMetrics(DepthEvent depthEvent) {
+        processedCount.incrementAndGet();
+        long lag = System.currentTimeMillis() - depthEvent.getEventTime();
+        maxLag.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * Buffer of one producer thread in this shard.
+     * <br> <br>
+     * When the buffer is full, events wait in the producer, at most one per order book: the following diffs
+     * of the same book are merged into the waiting one by {@link DepthEventMerger}, so an overloaded shard
+     * gets fewer, larger diffs instead of losing them.
+     */
+    static class Producer {
+
+        private final int shardId;
+        private final SpscRingBuffer<Slot> ring;
+        // events that didn't fit into the buffer by market symbol, in the order of their arrival
+        private final Map<String, DepthEvent> pending = new LinkedHashMap<>();
+
+        private Producer(int shardId, SpscRingBuffer<Slot> ring) {
+            this.shardId = shardId;
+            this.ring = ring;
+        }
+
+        void offer(DepthEvent depthEvent, String mSymbol) {
+            flush();
+            DepthEvent previous = pending.get(mSymbol);
+            // events of a book with a pending event must wait too, to keep their order
+            if (previous == null && publish(depthEvent, mSymbol)) return;
+
+            if (previous == null) {
+                if (pending.isEmpty()) log.warn("depth queue of shard {} is full!", shardId);
+                pending.put(mSymbol, depthEvent);
+            } else if (DepthEventMerger.isContiguous(previous, depthEvent)) {
+                pending.put(mSymbol, DepthEventMerger.merge(previous, depthEvent));
+                OverflowMetrics.record(DEPTH_COALESCED, depthEvent.isSpot());
+            } else {
+                // the book sees the gap and re-syncs
+                pending.put(mSymbol, depthEvent);
+                OverflowMetrics.record(DEPTH_DROPPED, depthEvent.isSpot());
+            }
+        }
+
+        /**
+         * Hands the pending events over while the buffer has room.
+         * @return true if there are still pending events.
+         */
+        boolean flush() {
+            if (pending.isEmpty()) return false;
+            Iterator<Map.Entry<String, DepthEvent>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, DepthEvent> entry = it.next();
+                if (!publish(entry.getValue(), entry.getKey())) return true;
+                it.remove();
+            }
+            return false;
+        }
+
+        private boolean publish(DepthEvent depthEvent, String mSymbol) {
+            Slot slot = ring.claim();
+            if (slot == null) return false;
+            slot.depthEvent = depthEvent;
+            slot.mSymbol = mSymbol;
+            ring.publish();
+            return true;
+        }
+    }
+
+    private static class Slot {
+        private DepthEvent depthEvent;
+        private String mSymbol;
+    }
+}
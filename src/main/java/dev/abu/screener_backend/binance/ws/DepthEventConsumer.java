@@ -1,20 +1,27 @@
 package dev.abu.screener_backend.binance.ws;
 
-import dev.abu.screener_backend.binance.OrderBook;
 import dev.abu.screener_backend.binance.OBService;
 import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.metrics.OverflowMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
-import static dev.abu.screener_backend.binance.dt.AsyncOBScheduler.getNumOfScheduledTasks;
+import static dev.abu.screener_backend.utils.EnvParams.DEPTH_CONSUMER_SHARDS;
+import static dev.abu.screener_backend.utils.EnvParams.FUT_CONNECTIONS;
 import static dev.abu.screener_backend.utils.EnvParams.FUT_SIGN;
-
+import static dev.abu.screener_backend.utils.EnvParams.SPOT_CONNECTIONS;
+
+/**
+ * Distributes depth events between {@link DepthConsumerShard}s.
+ * <br> <br>
+ * Events are routed by the market symbol, so all events of one order book are processed by the same shard thread,
+ * in the order they were received, while different order books are processed in parallel.
+ * The number of shards is set by the {@code depth-consumer.shards} property of config.properties.
+ * <br> <br>
+ * Each thread that calls {@link #accept} gets its own buffer in every shard, so that the events are handed over
+ * without locks. The callers are the decoder threads of the websocket connections, which live as long as the app.
+ */
 @Component
 @Slf4j
 public class DepthEventConsumer {
@@ -24,26 +31,23 @@ public class DepthEventConsumer {
      * If the desired maximum size of the queue should be 210MB,
      * then the queue capacity is approx 210MB/0.007MB = 30,000.
      * <br> <br>
-     * The maximum weight of the queue is <b>210MB</b> with the capacity of <b>30,000</b> messages,
-     * where each message weights approximately <b>7KB</b>
+     * The maximum weight of all shard queues is <b>210MB</b> with the total capacity of <b>30,000</b> messages,
+     * where each message weights approximately <b>7KB</b>. The capacity is split between the buffers of the shards
+     * for every websocket connection.
      */
     private static final int QUEUE_CAPACITY = 30_000;
-    private static final int SCHEDULE_THRESHOLD = 115;
 
-    private final ArrayBlockingQueue<DepthEvent> queue;
-    private final Queue<DepthEvent> internalQueue;
-    private final OBService obService;
+    private final DepthConsumerShard[] shards;
+    private final ThreadLocal<DepthConsumerShard.Producer[]> producers = ThreadLocal.withInitial(this::newProducers);
 
     public DepthEventConsumer(OBService obService) {
-        this.obService = obService;
-        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
-        this.internalQueue = new ArrayDeque<>(QUEUE_CAPACITY);
-        ScheduledExecutorService execService = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r);
-            t.setName("depth-consumer");
-            return t;
-        });
-        execService.scheduleAtFixedRate(this::consumer, 100L, 100L, TimeUnit.MILLISECONDS);
+        int numOfShards = Math.max(1, DEPTH_CONSUMER_SHARDS);
+        int producerCapacity = QUEUE_CAPACITY / numOfShards / Math.max(1, SPOT_CONNECTIONS + FUT_CONNECTIONS);
+        this.shards = new DepthConsumerShard[numOfShards];
+        for (int i = 0; i < numOfShards; i++) {
+            shards[i] = new DepthConsumerShard(i, producerCapacity, obService);
+        }
+        log.info("Started {} depth consumer shards", numOfShards);
     }
 
     /**
@@ -51,79 +55,57 @@ public class DepthEventConsumer {
      * @param depthEvent update from a websocket.
      */
     public void accept(DepthEvent depthEvent) {
-        if (!queue.offer(depthEvent)) {
-            log.warn("depth queue is full!");
-        }
+        if (depthEvent.getSymbol() == null) return;
+        String mSymbol = getMarketSymbol(depthEvent);
+        producers.get()[getShardIndex(mSymbol)].offer(depthEvent, mSymbol);
     }
 
     /**
-     * Consumer function called every 100ms.
+     * Hands the events that waited for a full shard queue over to the shards, called by the producer threads when idle.
+     * @return true if some events are still waiting.
      */
-    private void consumer() {
-        List<DepthEvent> batch = new ArrayList<>();
-        queue.drainTo(batch);
-        if (batch.isEmpty()) return;
-        internalQueue.addAll(batch);
-        processInternalQueue();
+    public boolean flushPending() {
+        boolean hasPending = false;
+        for (DepthConsumerShard.Producer producer : producers.get()) {
+            hasPending |= producer.flush();
+        }
+        return hasPending;
     }
 
-    /**
-     * Method called by a consumer thread from a consumer() method.
-     * Iterates through an internalQueue and processes depth events.
-     */
-    private void processInternalQueue() {
-        Iterator<DepthEvent> it = internalQueue.iterator();
-        Set<String> ineligibleSet = new HashSet<>();
-
-        while (it.hasNext()) {
-            DepthEvent update = it.next();
-            boolean processed = handleMessage(update, ineligibleSet);
-            if (processed) {
-                it.remove();
-            }
+    @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
+    public void printMetrics() {
+        StringBuilder sb = new StringBuilder("depth shards: {");
+        for (DepthConsumerShard shard : shards) {
+            sb.append(shard.getId())
+                    .append(": [queue=").append(shard.getQueueSize())
+                    .append(", resyncing=").append(shard.getResyncingCount())
+                    .append(", processed=").append(shard.getProcessedCount())
+                    .append(", coalesced=").append(shard.getCoalescedCount())
+                    .append(", maxLag=").append(shard.getMaxLag()).append("ms], ");
+            shard.resetMetrics();
         }
+        sb.delete(sb.length() - 2, sb.length());
+        sb.append("}");
+        log.info(sb.toString());
+        log.info("overflow actions since start: {}", OverflowMetrics.getCounts());
     }
 
-    /**
-     * Method called by a consumer thread from a consumer() -> processInternalQueue() method.
-     * @param depthEvent   POJO object representing a deserialized depth update from a websocket
-     * @param ineligibleSet a set of symbols that should be preserved for a next processing.
-     * @return true if this depthUpdate event should be removed, false otherwise.
-     */
-    private boolean handleMessage(DepthEvent depthEvent, Set<String> ineligibleSet) {
-        try {
-            String eventType = depthEvent.getEventType();
-            if (eventType == null || !eventType.equals("depthUpdate")) {
-                return true;
-            }
-
-            String symbol = depthEvent.getSymbol();
-            if (symbol == null) {
-                return true;
-            }
-
-            boolean isSpot = depthEvent.getLastUpdateId() == null;
-            String marketSymbol = symbol + (isSpot ? "" : FUT_SIGN);
-
-            if (ineligibleSet.contains(marketSymbol)) return false;
-            OrderBook orderBook = obService.getOrderBook(marketSymbol);
-
-            if (orderBook == null) {
-                return true;
-
-            } else if (orderBook.isTaskScheduled()) {
-                ineligibleSet.add(symbol);
+    static String getMarketSymbol(DepthEvent depthEvent) {
+        boolean isSpot = depthEvent.getLastUpdateId() == null;
+        return depthEvent.getSymbol() + (isSpot ? "" : FUT_SIGN);
+    }
 
-            } else if (orderBook.isScheduleNeeded() && getNumOfScheduledTasks(isSpot) > SCHEDULE_THRESHOLD) {
-                return true;
+    private int getShardIndex(String mSymbol) {
+        if (shards.length == 1) return 0;
+        return Math.floorMod(mSymbol.hashCode(), shards.length);
+    }
 
-            } else {
-                orderBook.process(depthEvent);
-                return true;
-            }
-        } catch (Exception e) {
-            log.error("Failed to read json data - {}", depthEvent, e);
+    private DepthConsumerShard.Producer[] newProducers() {
+        DepthConsumerShard.Producer[] result = new DepthConsumerShard.Producer[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].newProducer();
         }
-        return false;
+        log.info("Registered {} as a depth event producer", Thread.currentThread().getName());
+        return result;
     }
 }
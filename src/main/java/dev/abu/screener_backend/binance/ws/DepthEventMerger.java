@@ -0,0 +1,69 @@
+package dev.abu.screener_backend.binance.ws;
+
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+
+import java.util.Arrays;
+
+/**
+ * Merges consecutive diffs of one order book into a single diff with the same net effect on the book.
+ */
+class DepthEventMerger {
+
+    private DepthEventMerger() {}
+
+    /**
+     * Uses the same rules as the order book: a futures diff continues the previous one if its {@code pu} equals
+     * the previous {@code u}, a spot diff if its {@code U} is at most the previous {@code u + 1}.
+     * @return true if {@code next} continues {@code previous} without a gap.
+     */
+    static boolean isContiguous(DepthEvent previous, DepthEvent next) {
+        if (next.getLastUpdateId() != null) {
+            return next.getLastUpdateId() == previous.getFinalUpdateId();
+        }
+        return next.getFirstUpdateId() <= previous.getFinalUpdateId() + 1 && next.getFinalUpdateId() > previous.getFinalUpdateId();
+    }
+
+    /**
+     * @return a diff from the first update of {@code previous} to the last update of {@code next},
+     * where the levels of {@code next} replace the levels of {@code previous} with the same price.
+     */
+    static DepthEvent merge(DepthEvent previous, DepthEvent next) {
+        DepthEvent merged = new DepthEvent();
+        merged.setSpot(next.isSpot());
+        // the queue wait is measured from the oldest merged event
+        merged.setDecodedAt(previous.getDecodedAt());
+        merged.setEventType(next.getEventType());
+        merged.setEventTime(next.getEventTime());
+        merged.setSymbol(next.getSymbol());
+        merged.setFirstUpdateId(previous.getFirstUpdateId());
+        merged.setFinalUpdateId(next.getFinalUpdateId());
+        merged.setLastUpdateId(previous.getLastUpdateId());
+        merged.setBids(mergeLevels(previous.getBids(), next.getBids()));
+        merged.setAsks(mergeLevels(previous.getAsks(), next.getAsks()));
+        return merged;
+    }
+
+    /**
+     * Keeps the order in which the levels would have been applied: the levels that only {@code previous} changes,
+     * then all levels of {@code next}.
+     */
+    private static PriceLevelList mergeLevels(PriceLevelList previous, PriceLevelList next) {
+        double[] nextPrices = new double[next.size()];
+        for (int i = 0; i < nextPrices.length; i++) {
+            nextPrices[i] = next.price(i);
+        }
+        Arrays.sort(nextPrices);
+
+        PriceLevelList merged = new PriceLevelList(previous.size() + next.size());
+        for (int i = 0; i < previous.size(); i++) {
+            if (Arrays.binarySearch(nextPrices, previous.price(i)) < 0) {
+                merged.add(previous.price(i), previous.quantity(i));
+            }
+        }
+        for (int i = 0; i < next.size(); i++) {
+            merged.add(next.price(i), next.quantity(i));
+        }
+        return merged;
+    }
+}
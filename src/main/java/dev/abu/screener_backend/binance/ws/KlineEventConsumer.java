@@ -8,6 +8,7 @@ import dev.abu.screener_backend.binance.entities.GVolume;
 import dev.abu.screener_backend.binance.entities.KlineData;
 import dev.abu.screener_backend.binance.entities.KlineEvent;
 import dev.abu.screener_backend.binance.entities.KlineInterval;
+import dev.abu.screener_backend.metrics.OverflowMetrics;
 import dev.abu.screener_backend.websockets.WSOpenInterestHandler;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
@@ -21,6 +22,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+import static dev.abu.screener_backend.metrics.OverflowAction.KLINE_DROPPED;
 import static dev.abu.screener_backend.utils.EnvParams.FUT_SIGN;
 
 @Component
@@ -44,6 +46,7 @@ public class KlineEventConsumer {
     private final TopNVolumes gVolume =  new TopNVolumes(TOP_N);
     private final Map<String, TreeSet<KlineData>> klines = new ConcurrentHashMap<>();
     private final Map<String, NavigableMap<Long, Double>> volumeHistory = new ConcurrentHashMap<>();
+    private final Map<String, Double> quoteVolumes = new ConcurrentHashMap<>();
     private String klineJsonData;
     private final Object lock = new Object();
 
@@ -68,23 +71,38 @@ public class KlineEventConsumer {
 
     public void accept(KlineEvent klineEvent) {
         if (!queue.offer(klineEvent)) {
+            OverflowMetrics.record(KLINE_DROPPED, klineEvent.isSpot());
             log.warn("kline queue is full!");
         }
     }
 
+    /**
+     * Fetches the historical klines of all given symbols. Requests are sent concurrently as fast as the request weight limit allows,
+     * the method returns when all of them are finished.
+     */
     public void fetchHistoricalData(Collection<String> symbols, boolean isSpot) {
-        symbols.forEach(symbol -> fetchHistoricalData(symbol, isSpot));
+        List<CompletableFuture<Void>> futures = new ArrayList<>(symbols.size());
+        symbols.forEach(symbol -> futures.add(fetchHistoricalData(symbol, isSpot)));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
     }
 
-    private void fetchHistoricalData(String symbol, boolean isSpot) {
+    private CompletableFuture<Void> fetchHistoricalData(String symbol, boolean isSpot) {
+        String mSymbol = isSpot ? symbol : symbol + FUT_SIGN;
+        if (getVolumeHistory(mSymbol).size() >= LIMIT) return CompletableFuture.completedFuture(null);
+
+        return BinanceClient.getKlinesDataAsync(symbol, INTERVAL, LIMIT+"", isSpot)
+                .thenAccept(json -> storeHistoricalData(mSymbol, json))
+                .exceptionally(e -> {
+                    log.error("Error while fetching historical kline data: {} / {}", symbol, isSpot, e);
+                    return null;
+                });
+    }
+
+    private void storeHistoricalData(String mSymbol, String json) {
         try {
-            String mSymbol = isSpot ? symbol : symbol + FUT_SIGN;
             NavigableMap<Long, Double> series = getVolumeHistory(mSymbol);
             TreeSet<KlineData> klineDataList = getKlines(mSymbol);
 
-            if (series.size() >= LIMIT) return;
-
-            String json = BinanceClient.getKlinesData(symbol, INTERVAL, LIMIT+"", isSpot);
             List<KlineData> klineList = objectMapper.readValue(json, new TypeReference<>() {});
             klineDataList.addAll(klineList);
 
@@ -92,8 +110,11 @@ public class KlineEventConsumer {
                 double volume = Double.parseDouble(kline.getVolume());
                 series.put(kline.getCloseTime(), volume);
             }
+            if (!klineList.isEmpty()) {
+                updateQuoteVolume(mSymbol, klineList.get(klineList.size() - 1));
+            }
         } catch (Exception e) {
-            log.error("Error while fetching historical kline data: {} / {}", symbol, isSpot, e);
+            log.error("Error while reading historical kline data: {} - {}", mSymbol, json, e);
         }
     }
 
@@ -109,7 +130,9 @@ public class KlineEventConsumer {
 
             // store the new kline
             String mSymbol = klineEvent.isSpot() ? klineEvent.getSymbol() : klineEvent.getSymbol() + FUT_SIGN;
-            addNewKline(mSymbol, klineEvent.getKlineData());
+            KlineData klineData = klineEvent.getKlineData();
+            addNewKline(mSymbol, klineData);
+            updateQuoteVolume(mSymbol, klineData);
 
             long closeTime = klineEvent.getKline().getCloseTime();
             double currentVolume = Double.parseDouble(klineEvent.getKline().getVolume());
@@ -178,6 +201,20 @@ public class KlineEventConsumer {
         }
     }
 
+    /**
+     * @param mSymbol market symbol.
+     * @return quote asset volume of the last closed kline of the symbol, 0 if there is no kline yet.
+     */
+    public double getQuoteVolume(String mSymbol) {
+        return quoteVolumes.getOrDefault(mSymbol, 0.0);
+    }
+
+    private void updateQuoteVolume(String mSymbol, KlineData klineData) {
+        String quoteVolume = klineData.getQuoteAssetVolume();
+        if (quoteVolume == null) return;
+        quoteVolumes.put(mSymbol, Double.parseDouble(quoteVolume));
+    }
+
     private void addNewKline(String mSymbol, KlineData klineData) {
         TreeSet<KlineData> klinesSet = getKlines(mSymbol);
         if (!klinesSet.add(klineData)) {
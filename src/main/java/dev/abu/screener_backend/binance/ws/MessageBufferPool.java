@@ -0,0 +1,41 @@
+package dev.abu.screener_backend.binance.ws;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of byte arrays that hold raw websocket messages until they are decoded.
+ * <br> <br>
+ * Buffers are taken by the socket thread and released by the decoder thread. If the pool is empty, a new buffer
+ * is allocated, and buffers released into a full pool are left to the garbage collector,
+ * so a backlog of messages never blocks the socket.
+ */
+class MessageBufferPool {
+
+    // a depth message is about 7KB, larger messages grow the buffer
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final ArrayBlockingQueue<byte[]> buffers;
+
+    MessageBufferPool(int capacity) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer == null ? new byte[INITIAL_BUFFER_SIZE] : buffer;
+    }
+
+    void release(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return a buffer that holds at least {@code minLength} bytes, with the first {@code length} bytes copied.
+     */
+    static byte[] grow(byte[] buffer, int length, int minLength) {
+        if (minLength <= buffer.length) return buffer;
+        byte[] grown = new byte[Math.max(minLength, buffer.length * 2)];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        return grown;
+    }
+}
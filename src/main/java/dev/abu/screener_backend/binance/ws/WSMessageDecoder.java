@@ -0,0 +1,145 @@
+package dev.abu.screener_backend.binance.ws;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.binance.entities.KlineEvent;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static dev.abu.screener_backend.binance.entities.PriceLevelListDeserializer.read;
+
+/**
+ * Decodes websocket messages from Binance in a single streaming pass.
+ * <br> <br>
+ * Instead of reading the message into a tree to find out the event type and then
+ * parsing the same string again into a POJO, the fields are read token by token
+ * and the event object is filled as soon as the whole message has been read.
+ * The order of fields in the message doesn't matter.
+ */
+@Component
+public class WSMessageDecoder {
+
+    private static final String DEPTH_UPDATE = "depthUpdate";
+    private static final String KLINE = "kline";
+
+    private static final byte[] KLINE_TYPE = "\"e\":\"kline\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPEN_KLINE = "\"x\":false".getBytes(StandardCharsets.US_ASCII);
+    private static final int TYPE_SEARCH_LENGTH = 32;
+
+    private final JsonFactory factory;
+    private final ObjectReader klineReader;
+
+    public WSMessageDecoder(ObjectMapper mapper) {
+        this.factory = mapper.getFactory();
+        this.klineReader = mapper.readerFor(KlineEvent.KlineData.class);
+    }
+
+    /**
+     * @param json raw message from a websocket.
+     * @return {@link DepthEvent} or {@link KlineEvent}, or {@code null} for any other message.
+     */
+    public Object decode(String json) throws IOException {
+        try (JsonParser p = factory.createParser(json)) {
+            return decode(p);
+        }
+    }
+
+    /**
+     * Decodes a UTF-8 message directly from its bytes, without creating a {@link String} of the whole message.
+     * @return {@link DepthEvent} or {@link KlineEvent}, or {@code null} for any other message.
+     */
+    public Object decode(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser p = factory.createParser(bytes, offset, length)) {
+            return decode(p);
+        }
+    }
+
+    /**
+     * Checks the raw message without parsing it, Binance writes the event type as the first field.
+     */
+    static boolean isKline(byte[] bytes, int length) {
+        return indexOf(bytes, Math.min(length, TYPE_SEARCH_LENGTH), KLINE_TYPE) >= 0;
+    }
+
+    /**
+     * @return true if the raw message is a kline that isn't closed yet, which {@link KlineEventConsumer} ignores.
+     */
+    static boolean isOpenKline(byte[] bytes, int length) {
+        return isKline(bytes, length) && indexOf(bytes, length, OPEN_KLINE) >= 0;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private Object decode(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) return null;
+
+        String eventType = null;
+        String symbol = null;
+        long eventTime = 0;
+        long firstUpdateId = 0;
+        long finalUpdateId = 0;
+        Long lastUpdateId = null;
+        PriceLevelList bids = null;
+        PriceLevelList asks = null;
+        KlineEvent.KlineData kline = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if (value == JsonToken.VALUE_NULL) continue;
+
+            switch (field) {
+                case "e" -> eventType = p.getText();
+                case "E" -> eventTime = p.getLongValue();
+                case "s" -> symbol = p.getText();
+                case "U" -> firstUpdateId = p.getLongValue();
+                case "u" -> finalUpdateId = p.getLongValue();
+                case "pu" -> lastUpdateId = p.getLongValue();
+                case "b" -> bids = read(p);
+                case "a" -> asks = read(p);
+                case "k" -> kline = klineReader.readValue(p);
+                default -> p.skipChildren();
+            }
+        }
+
+        if (DEPTH_UPDATE.equals(eventType)) {
+            DepthEvent depthEvent = new DepthEvent();
+            depthEvent.setEventType(eventType);
+            depthEvent.setEventTime(eventTime);
+            depthEvent.setSymbol(symbol);
+            depthEvent.setFirstUpdateId(firstUpdateId);
+            depthEvent.setFinalUpdateId(finalUpdateId);
+            depthEvent.setLastUpdateId(lastUpdateId);
+            depthEvent.setBids(bids == null ? new PriceLevelList(0) : bids);
+            depthEvent.setAsks(asks == null ? new PriceLevelList(0) : asks);
+            return depthEvent;
+        }
+
+        if (KLINE.equals(eventType)) {
+            KlineEvent klineEvent = new KlineEvent();
+            klineEvent.setEventType(eventType);
+            klineEvent.setEventTime(eventTime);
+            klineEvent.setSymbol(symbol);
+            klineEvent.setKline(kline);
+            return klineEvent;
+        }
+
+        return null;
+    }
+}
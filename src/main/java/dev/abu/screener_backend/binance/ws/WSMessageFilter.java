@@ -1,9 +1,8 @@
 package dev.abu.screener_backend.binance.ws;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.entities.DepthEvent;
 import dev.abu.screener_backend.binance.entities.KlineEvent;
+import dev.abu.screener_backend.metrics.LatencyMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -12,39 +11,52 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static dev.abu.screener_backend.metrics.LatencyStage.PARSE;
+import static dev.abu.screener_backend.metrics.LatencyStage.RECEIVE;
+
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class WSMessageFilter {
 
-    private final ObjectMapper mapper;
+    private final WSMessageDecoder decoder;
     private final DepthEventConsumer depthConsumer;
     private final KlineEventConsumer klineConsumer;
 
     private final AtomicInteger depthCount = new AtomicInteger();
     private final AtomicInteger klineCount = new AtomicInteger();
 
-    public void filter(String json, boolean isSpot) throws IOException {
-        JsonNode eField = mapper.readTree(json).get("e");
-        if (eField == null || eField.isNull()) return;
-
-        String eventType = eField.asText();
-        switch (eventType) {
-            case "depthUpdate":
-                DepthEvent depthEvent = mapper.readValue(json, DepthEvent.class);
-                depthEvent.setSpot(isSpot);
-                depthConsumer.accept(depthEvent);
-                depthCount.incrementAndGet();
-                break;
-            case "kline":
-                KlineEvent klineEvent = mapper.readValue(json, KlineEvent.class);
-                klineEvent.setSpot(isSpot);
-                klineConsumer.accept(klineEvent);
-                klineCount.incrementAndGet();
-                break;
-            default:
-                break;
+    /**
+     * @param bytes buffer that holds the UTF-8 message, it can be reused once this method returns.
+     * @param receivedAt {@link System#nanoTime()} when the message was received from the socket.
+     * @param receivedTime wall clock time in milliseconds when the message was received from the socket.
+     * @return symbol of the event, or null if the message is not an event.
+     */
+    public String filter(byte[] bytes, int length, boolean isSpot, long receivedAt, long receivedTime) throws IOException {
+        Object event = decoder.decode(bytes, 0, length);
+        if (event instanceof DepthEvent depthEvent) {
+            depthEvent.setSpot(isSpot);
+            LatencyMetrics.recordMillis(RECEIVE, isSpot, receivedTime - depthEvent.getEventTime());
+            LatencyMetrics.recordSince(PARSE, isSpot, receivedAt);
+            depthEvent.setDecodedAt(System.nanoTime());
+            depthConsumer.accept(depthEvent);
+            depthCount.incrementAndGet();
+            return depthEvent.getSymbol();
+        } else if (event instanceof KlineEvent klineEvent) {
+            klineEvent.setSpot(isSpot);
+            klineConsumer.accept(klineEvent);
+            klineCount.incrementAndGet();
+            return klineEvent.getSymbol();
         }
+        return null;
+    }
+
+    /**
+     * Called by the decoder threads when they have no messages.
+     * @return true if some depth events still wait for a full shard queue.
+     */
+    public boolean flushPending() {
+        return depthConsumer.flushPending();
     }
 
     @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
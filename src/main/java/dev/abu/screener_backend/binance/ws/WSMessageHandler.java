@@ -1,55 +1,134 @@
 package dev.abu.screener_backend.binance.ws;
 
+import dev.abu.screener_backend.metrics.OverflowMetrics;
+import dev.abu.screener_backend.utils.ConsumerWaiter;
+import dev.abu.screener_backend.utils.SpscRingBuffer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
+import static dev.abu.screener_backend.metrics.OverflowAction.DEPTH_DROPPED;
+import static dev.abu.screener_backend.metrics.OverflowAction.KLINE_DROPPED;
+import static dev.abu.screener_backend.metrics.OverflowAction.OPEN_KLINE_DROPPED;
+
+/**
+ * Queue and decoder thread of one Binance websocket connection.
+ * <br> <br>
+ * Messages arrive as UTF-8 bytes in buffers of the {@link MessageBufferPool} of the connection,
+ * which are returned to the pool once the message is decoded.
+ * The queue is a {@link SpscRingBuffer}: the only producer is the current socket of the connection.
+ * {@link WebSocketManager} deactivates the previous socket, and any socket whose connect attempt failed,
+ * before it creates a new one, see {@link BinanceSocket#deactivate()}.
+ * <br> <br>
+ * When the queue is more than half full, klines that aren't closed yet are dropped, since they are ignored anyway.
+ * When it is full, the new message is dropped: a dropped depth message makes only its order book re-sync,
+ * which notices the gap in the update ids. The counts are kept by {@link OverflowMetrics}.
+ */
 @Slf4j
 public class WSMessageHandler {
 
-    private static final int CAPACITY = 30_000;
+    private static final int CAPACITY = 32_768;
+    private static final int POOL_CAPACITY = 256;
+    private static final int OPEN_KLINE_DROP_SIZE = CAPACITY / 2;
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long PENDING_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
     private final WSMessageFilter filter;
     private final boolean isSpot;
-    private final ArrayBlockingQueue<String> queue;
+    private final String name;
+    private final Consumer<String> symbolListener;
+    private final ConsumerWaiter waiter = new ConsumerWaiter();
+    private final SpscRingBuffer<ReceivedMessage> queue = new SpscRingBuffer<>(CAPACITY, ReceivedMessage::new, waiter);
+    private final BooleanSupplier hasMessages = () -> !queue.isEmpty();
+    private final MessageBufferPool bufferPool = new MessageBufferPool(POOL_CAPACITY);
+
+    // messages dropped since the queue became full, accessed only by the socket thread
+    private long droppedMessages;
 
-    public WSMessageHandler(WSMessageFilter filter, boolean isSpot) {
+    /**
+     * @param name name of the connection.
+     * @param symbolListener called on the decoder thread with the symbol of every decoded event.
+     */
+    public WSMessageHandler(WSMessageFilter filter, boolean isSpot, String name, Consumer<String> symbolListener) {
         this.filter = filter;
         this.isSpot = isSpot;
-        this.queue = new ArrayBlockingQueue<>(CAPACITY, false);
+        this.name = name;
+        this.symbolListener = symbolListener;
         startConsumer();
     }
 
     public void startConsumer() {
         Thread consumerThread = new Thread(() -> {
-            while (true) {
+            while (!Thread.currentThread().isInterrupted()) {
+                ReceivedMessage message = queue.peek();
+                if (message == null) {
+                    boolean hasPending = filter.flushPending();
+                    waiter.await(hasMessages, hasPending ? PENDING_RETRY_NANOS : IDLE_TIMEOUT_NANOS);
+                    continue;
+                }
                 try {
-                    String message = queue.take();
-                    filter.filter(message, isSpot);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+                    String symbol = filter.filter(message.bytes, message.length, isSpot, message.receivedAt, message.receivedTime);
+                    if (symbol != null) symbolListener.accept(symbol);
                 } catch (IOException e) {
                     log.error("Exception in consumer thread", e);
+                } finally {
+                    bufferPool.release(message.bytes);
+                    message.bytes = null;
+                    queue.release();
                 }
             }
         });
+        consumerThread.setName("ws-decoder-" + name);
         consumerThread.start();
     }
 
-    public void handleMessage(String msg) {
-        try {
-            take(msg);
-        } catch (Exception e) {
-            log.error("Error handling message: {}", e.getMessage());
-        }
+    /**
+     * @return an empty buffer for the next message of the socket.
+     */
+    byte[] acquireBuffer() {
+        return bufferPool.acquire();
     }
 
-    private void take(String msg) {
-        boolean success = queue.offer(msg);
-        if (!success) {
-            log.warn("queue is full!");
-            queue.clear();
+    /**
+     * @param bytes buffer from {@link #acquireBuffer()} that holds the UTF-8 message, owned by the handler afterward.
+     * @param receivedAt {@link System#nanoTime()} when the message was received from the socket.
+     * @param receivedTime wall clock time in milliseconds when the message was received from the socket.
+     */
+    public void handleMessage(byte[] bytes, int length, long receivedAt, long receivedTime) {
+        if (queue.size() >= OPEN_KLINE_DROP_SIZE && WSMessageDecoder.isOpenKline(bytes, length)) {
+            bufferPool.release(bytes);
+            OverflowMetrics.record(OPEN_KLINE_DROPPED, isSpot);
+            return;
+        }
+
+        ReceivedMessage slot = queue.claim();
+        if (slot == null) {
+            OverflowMetrics.record(WSMessageDecoder.isKline(bytes, length) ? KLINE_DROPPED : DEPTH_DROPPED, isSpot);
+            bufferPool.release(bytes);
+            if (droppedMessages++ == 0) log.warn("[{}] queue is full!", name);
+            return;
+        }
+        if (droppedMessages > 0) {
+            log.warn("[{}] dropped {} messages while the queue was full", name, droppedMessages);
+            droppedMessages = 0;
         }
+
+        slot.bytes = bytes;
+        slot.length = length;
+        slot.receivedAt = receivedAt;
+        slot.receivedTime = receivedTime;
+        queue.publish();
+    }
+
+    /**
+     * Reusable slot of the queue, handed over between the threads by {@link SpscRingBuffer}.
+     */
+    private static class ReceivedMessage {
+        private byte[] bytes;
+        private int length;
+        private long receivedAt;
+        private long receivedTime;
     }
 }
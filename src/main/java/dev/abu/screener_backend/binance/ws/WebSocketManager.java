@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.entities.WSSubscriptionRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 
 import java.net.URI;
@@ -12,6 +13,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -69,18 +71,26 @@ public class WebSocketManager {
     }
 
     private void connect() {
+        Future<Session> connection = null;
+        BinanceSocket socket = null;
         try {
-            BinanceSocket socket = new BinanceSocket(name, messageHandler, this::scheduleReconnect);
+            // the decoder queue accepts messages from one socket only
+            if (this.socket != null) this.socket.deactivate();
+            socket = new BinanceSocket(name, messageHandler, this::scheduleReconnect);
             this.socket = socket;
 
             log.info("[{}] Connecting to WebSocket: {}", name, endpoint);
-            client.connect(socket, endpoint).get(60, TimeUnit.SECONDS);
+            connection = client.connect(socket, endpoint);
+            connection.get(60, TimeUnit.SECONDS);
 
             isConnecting.set(false);
             reconnectAttempts = 0; // reset backoff on success
             subscribe(subscribedStreams); // re-subscribe to previously subscribed streams
         } catch (Throwable e) {
             log.error("[{}] WebSocket connection failed", name, e);
+            // a connect attempt that timed out may still complete
+            if (connection != null) connection.cancel(true);
+            if (socket != null) socket.deactivate();
             isConnecting.set(false);
             scheduleReconnect();
         }
@@ -105,25 +115,49 @@ public class WebSocketManager {
         subscribedStreams.addAll(streams);
         if (streams.isEmpty() || !isConnected()) return;
         try {
-            subscribeByChunks(streams);
+            sendByChunks("SUBSCRIBE", streams);
             log.info("[{}] Subscribed to {} streams", name, streams.size());
         } catch (Exception e) {
             log.error("[{}] Couldn't subscribe to streams", name, e);
         }
     }
 
-    private void subscribeByChunks(List<String> streams) throws Exception {
+    public void unsubscribe(Collection<String> streamSet) {
+        List<String> streams = new ArrayList<>(streamSet);
+        subscribedStreams.removeAll(streams);
+        if (streams.isEmpty() || !isConnected()) return;
+        try {
+            sendByChunks("UNSUBSCRIBE", streams);
+            log.info("[{}] Unsubscribed from {} streams", name, streams.size());
+        } catch (Exception e) {
+            log.error("[{}] Couldn't unsubscribe from streams", name, e);
+        }
+    }
+
+    /**
+     * @return subscribed streams of the given symbol.
+     */
+    public List<String> getStreams(String symbol) {
+        String prefix = symbol + "@";
+        List<String> streams = new ArrayList<>();
+        for (String stream : subscribedStreams) {
+            if (stream.startsWith(prefix)) streams.add(stream);
+        }
+        return streams;
+    }
+
+    private void sendByChunks(String method, List<String> streams) throws Exception {
         // if payload is too long, websocket will disconnect
         // therefore data will be sent in the chunks of max 200 streams
         int chunkSize = 200;
         for (int i = 0; i < streams.size(); i += chunkSize) {
             var subStreams = streams.subList(i, Math.min(i + chunkSize, streams.size()));
-            subscribeToStreams(subStreams);
+            sendRequest(method, subStreams);
         }
     }
 
-    private void subscribeToStreams(List<String> streams) throws Exception {
-        WSSubscriptionRequest request = new WSSubscriptionRequest("SUBSCRIBE", streams, generateId());
+    private void sendRequest(String method, List<String> streams) throws Exception {
+        WSSubscriptionRequest request = new WSSubscriptionRequest(method, streams, generateId());
         String message = objectMapper.writeValueAsString(request);
         socket.sendText(message);
     }
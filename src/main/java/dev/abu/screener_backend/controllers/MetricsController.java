@@ -0,0 +1,57 @@
+package dev.abu.screener_backend.controllers;
+
+import dev.abu.screener_backend.metrics.LatencyReporter;
+import dev.abu.screener_backend.metrics.LatencyReporter.LatencySummary;
+import dev.abu.screener_backend.metrics.OverflowMetrics;
+import dev.abu.screener_backend.websockets.SessionManager;
+import dev.abu.screener_backend.websockets.SessionManager.SessionMetrics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+@RestController
+@PreAuthorize("hasAuthority('ADMIN')")
+@RequestMapping(path = "api/v1/metrics")
+public class MetricsController {
+
+    private final LatencyReporter latencyReporter;
+    private final SessionManager sessionManager;
+
+    /**
+     * @return latency percentiles in milliseconds of the last minute, by market type and stage.
+     */
+    @GetMapping("/latency")
+    public ResponseEntity<Map<String, Map<String, LatencySummary>>> getLatency() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(latencyReporter.getLastSummary());
+    }
+
+    /**
+     * @return counts of the actions taken on full queues since the start, by market type and action.
+     */
+    @GetMapping("/overflow")
+    public ResponseEntity<Map<String, Map<String, Long>>> getOverflow() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(OverflowMetrics.getCounts());
+    }
+
+    /**
+     * @return send queue size and frames dropped during the last minute of every websocket session, as of the last minute.
+     */
+    @GetMapping("/sessions")
+    public ResponseEntity<List<SessionMetrics>> getSessions() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(sessionManager.getLastMetrics());
+    }
+}
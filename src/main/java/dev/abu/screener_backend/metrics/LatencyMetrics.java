@@ -0,0 +1,69 @@
+package dev.abu.screener_backend.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms of every {@link LatencyStage} per market type.
+ * <br> <br>
+ * Durations are measured with {@link System#nanoTime()}, except for the stages that start at the event time
+ * set by Binance, which are measured with the wall clock and therefore include the clock offset of the server.
+ */
+public class LatencyMetrics {
+
+    private static final LatencyStage[] STAGES = LatencyStage.values();
+    private static final LatencyHistogram[] spotHistograms = newHistograms();
+    private static final LatencyHistogram[] futHistograms = newHistograms();
+
+    private LatencyMetrics() {}
+
+    public static void recordNanos(LatencyStage stage, boolean isSpot, long nanos) {
+        getHistograms(isSpot)[stage.ordinal()].record(nanos / 1_000);
+    }
+
+    public static void recordMillis(LatencyStage stage, boolean isSpot, long millis) {
+        getHistograms(isSpot)[stage.ordinal()].record(millis * 1_000);
+    }
+
+    public static void recordSince(LatencyStage stage, boolean isSpot, long startNanos) {
+        recordNanos(stage, isSpot, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param eventTime event time set by Binance in milliseconds.
+     */
+    public static void recordSinceEventTime(LatencyStage stage, boolean isSpot, long eventTime) {
+        if (eventTime <= 0) return;
+        getHistograms(isSpot)[stage.ordinal()].record((System.currentTimeMillis() - eventTime) * 1_000);
+    }
+
+    /**
+     * @return snapshots of all histograms by market ("spot", "fut") and stage; the histograms are cleared.
+     */
+    public static Map<String, Map<LatencyStage, LatencyHistogram.Snapshot>> snapshotAndReset() {
+        Map<String, Map<LatencyStage, LatencyHistogram.Snapshot>> snapshots = new LinkedHashMap<>();
+        snapshots.put("spot", snapshotAndReset(spotHistograms));
+        snapshots.put("fut", snapshotAndReset(futHistograms));
+        return snapshots;
+    }
+
+    private static Map<LatencyStage, LatencyHistogram.Snapshot> snapshotAndReset(LatencyHistogram[] histograms) {
+        Map<LatencyStage, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+        for (LatencyStage stage : STAGES) {
+            snapshots.put(stage, histograms[stage.ordinal()].snapshotAndReset());
+        }
+        return snapshots;
+    }
+
+    private static LatencyHistogram[] getHistograms(boolean isSpot) {
+        return isSpot ? spotHistograms : futHistograms;
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
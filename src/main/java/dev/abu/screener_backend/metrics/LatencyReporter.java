@@ -0,0 +1,65 @@
+package dev.abu.screener_backend.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summarizes the {@link LatencyMetrics} of every minute: logs the summary and keeps it for the metrics endpoint.
+ */
+@Component
+@Slf4j
+public class LatencyReporter {
+
+    private volatile Map<String, Map<String, LatencySummary>> lastSummary = Map.of();
+
+    public Map<String, Map<String, LatencySummary>> getLastSummary() {
+        return lastSummary;
+    }
+
+    @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
+    public void printMetrics() {
+        Map<String, Map<String, LatencySummary>> summary = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder("latency (ms, p50/p99/p999/max):");
+        for (var market : LatencyMetrics.snapshotAndReset().entrySet()) {
+            Map<String, LatencySummary> stages = new LinkedHashMap<>();
+            sb.append(" ").append(market.getKey()).append(": {");
+            for (var stage : market.getValue().entrySet()) {
+                LatencySummary s = LatencySummary.of(stage.getValue());
+                stages.put(stage.getKey().name().toLowerCase(), s);
+                if (s.count() == 0) continue;
+                sb.append(stage.getKey().name().toLowerCase())
+                        .append("=").append(s.p50()).append("/").append(s.p99())
+                        .append("/").append(s.p999()).append("/").append(s.max()).append(", ");
+            }
+            if (sb.charAt(sb.length() - 1) == ' ') sb.delete(sb.length() - 2, sb.length());
+            sb.append("}");
+            summary.put(market.getKey(), stages);
+        }
+        lastSummary = summary;
+        log.info(sb.toString());
+    }
+
+    /**
+     * Percentiles of one stage in milliseconds.
+     */
+    public record LatencySummary(long count, double p50, double p99, double p999, double max) {
+
+        static LatencySummary of(LatencyHistogram.Snapshot snapshot) {
+            return new LatencySummary(
+                    snapshot.count(),
+                    toMillis(snapshot.valueAt(50)),
+                    toMillis(snapshot.valueAt(99)),
+                    toMillis(snapshot.valueAt(99.9)),
+                    toMillis(snapshot.max())
+            );
+        }
+
+        private static double toMillis(long micros) {
+            return Math.round(micros / 10.0) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package dev.abu.screener_backend.metrics;
+
+/**
+ * Stages of a depth event on its way from Binance to the clients, see {@link LatencyMetrics}.
+ */
+public enum LatencyStage {
+
+    /** From the event time set by Binance to the time the message was received from the socket. */
+    RECEIVE,
+    /** From receiving the message to the decoded event, including the wait for the decoder thread. */
+    PARSE,
+    /** Wait in the queue of the depth consumer shard. */
+    QUEUE_WAIT,
+    /** Applying the event to the order book. */
+    BOOK_APPLY,
+    /** Updating the trade lists of the order book. */
+    EVALUATION,
+    /** Passing the trade lists of the order book to the user containers. */
+    DISTRIBUTION,
+    /** From queueing a frame for a session to the end of sending it. */
+    SEND,
+    /**
+     * From the event time set by Binance to the end of sending the first frame that contains the event,
+     * recorded once per frame for the oldest event it contains.
+     */
+    END_TO_END
+}
@@ -0,0 +1,16 @@
+package dev.abu.screener_backend.metrics;
+
+/**
+ * Actions taken when a queue of the depth pipeline is full, see {@link OverflowMetrics}.
+ */
+public enum OverflowAction {
+
+    /** A kline that isn't closed yet was dropped, because the decoder queue was more than half full. */
+    OPEN_KLINE_DROPPED,
+    /** A closed kline was dropped, because the decoder queue or the kline queue was full. */
+    KLINE_DROPPED,
+    /** A depth diff was merged into the pending diff of the same order book, because the shard queue was full. */
+    DEPTH_COALESCED,
+    /** A depth message was dropped, only the order book of the message re-syncs. */
+    DEPTH_DROPPED
+}
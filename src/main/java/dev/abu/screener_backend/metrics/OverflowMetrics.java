@@ -0,0 +1,51 @@
+package dev.abu.screener_backend.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of every {@link OverflowAction} per market type since the start of the app.
+ */
+public class OverflowMetrics {
+
+    private static final OverflowAction[] ACTIONS = OverflowAction.values();
+    private static final LongAdder[] spotCounts = newCounts();
+    private static final LongAdder[] futCounts = newCounts();
+
+    private OverflowMetrics() {}
+
+    public static void record(OverflowAction action, boolean isSpot) {
+        getCounts(isSpot)[action.ordinal()].increment();
+    }
+
+    /**
+     * @return counts by market ("spot", "fut") and action.
+     */
+    public static Map<String, Map<String, Long>> getCounts() {
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        counts.put("spot", getCounts(spotCounts));
+        counts.put("fut", getCounts(futCounts));
+        return counts;
+    }
+
+    private static Map<String, Long> getCounts(LongAdder[] adders) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (OverflowAction action : ACTIONS) {
+            counts.put(action.name().toLowerCase(), adders[action.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    private static LongAdder[] getCounts(boolean isSpot) {
+        return isSpot ? spotCounts : futCounts;
+    }
+
+    private static LongAdder[] newCounts() {
+        LongAdder[] counts = new LongAdder[ACTIONS.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,45 @@
+package dev.abu.screener_backend.utils;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Puts the consumer of one or more {@link SpscRingBuffer}s to sleep while they are empty,
+ * the buffers wake it up when an element is published.
+ * <br> <br>
+ * The consumer spins for a short while before parking, so that a busy pipeline doesn't pay for park and unpark.
+ * On a single CPU spinning only delays the producer, so the consumer parks right away.
+ */
+public class ConsumerWaiter {
+
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    private volatile Thread parkedThread;
+
+    /**
+     * Called by the consumer thread. Returns once {@code isReady} is true or the timeout has elapsed,
+     * or occasionally earlier, so the caller should check its buffers again.
+     */
+    public void await(BooleanSupplier isReady, long timeoutNanos) {
+        for (int i = 0; i < SPINS; i++) {
+            if (isReady.getAsBoolean()) return;
+            Thread.onSpinWait();
+        }
+        parkedThread = Thread.currentThread();
+        // an element published after this check sees the parked thread and unparks it
+        if (!isReady.getAsBoolean()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        parkedThread = null;
+    }
+
+    public void signal() {
+        Thread thread = parkedThread;
+        if (thread != null) {
+            // the following publishes don't need to wake the consumer again,
+            // and a consumer that parks again meanwhile still gets the permit of this unpark
+            parkedThread = null;
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -15,6 +15,18 @@ public class EnvParams {
     public static final String STREAM_SPOT_URL;
     public static final String STREAM_FUT_URL;
     public static final String FUT_SIGN;
+    public static final int DEPTH_CONSUMER_SHARDS;
+    public static final int SNAPSHOT_CONCURRENCY;
+    public static final int SESSION_SEND_QUEUE_CAPACITY;
+    public static final String SLOW_CONSUMER_POLICY;
+    public static final int SESSION_HEARTBEAT_INTERVAL;
+    public static final int SESSION_SENDER_THREADS;
+    public static final int SESSION_SEND_TIMEOUT;
+    public static final int BROADCAST_THREADS;
+    public static final int SPOT_CONNECTIONS;
+    public static final int FUT_CONNECTIONS;
+    public static final int REBALANCE_INTERVAL;
+    public static final int REBALANCE_MOVES;
 
     private EnvParams() {}
 
@@ -35,5 +47,28 @@ public class EnvParams {
         STREAM_SPOT_URL = properties.getProperty("binance.stream.spot-url");
         STREAM_FUT_URL = properties.getProperty("binance.stream.fut-url");
         FUT_SIGN = properties.getProperty("fut-sign");
+        DEPTH_CONSUMER_SHARDS = getIntProperty(properties, "depth-consumer.shards", Runtime.getRuntime().availableProcessors());
+        SNAPSHOT_CONCURRENCY = getIntProperty(properties, "snapshot.concurrency", 8);
+        SESSION_SEND_QUEUE_CAPACITY = getIntProperty(properties, "session.send-queue.capacity", 10);
+        SLOW_CONSUMER_POLICY = properties.getProperty("session.slow-consumer-policy");
+        SESSION_HEARTBEAT_INTERVAL = getIntProperty(properties, "session.heartbeat-interval", 5000);
+        SESSION_SENDER_THREADS = getIntProperty(properties, "session.sender-threads", 32);
+        SESSION_SEND_TIMEOUT = getIntProperty(properties, "session.send-timeout", 5000);
+        BROADCAST_THREADS = getIntProperty(properties, "broadcast.threads", Runtime.getRuntime().availableProcessors());
+        SPOT_CONNECTIONS = getIntProperty(properties, "binance.stream.spot-connections", 2);
+        FUT_CONNECTIONS = getIntProperty(properties, "binance.stream.fut-connections", 2);
+        REBALANCE_INTERVAL = getIntProperty(properties, "binance.stream.rebalance-interval", 15);
+        REBALANCE_MOVES = getIntProperty(properties, "binance.stream.rebalance-moves", 5);
+    }
+
+    private static int getIntProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value of {} in config.properties: {}, using {}", key, value, defaultValue);
+            return defaultValue;
+        }
     }
 }
@@ -0,0 +1,102 @@
+package dev.abu.screener_backend.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded queue between exactly one producer thread and one consumer thread, backed by an array of slots
+ * that are created once and reused for every element.
+ * <br> <br>
+ * The producer fills the slot returned by {@link #claim()} and hands it over with {@link #publish()}, the consumer
+ * reads the slot returned by {@link #peek()} and gives it back with {@link #release()}. Neither side takes a lock
+ * or allocates, and each index is written by one side only.
+ */
+public class SpscRingBuffer<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    private final ConsumerWaiter waiter;
+
+    // next slot to read, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // index of the other side seen last time, so that it is read only when the buffer looks full or empty
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * @param capacity minimum number of slots, rounded up to a power of two.
+     * @param slotFactory creates the slots.
+     * @param waiter waiter of the consumer thread that is signalled on every publish, or null.
+     */
+    public SpscRingBuffer(int capacity, Supplier<T> slotFactory, ConsumerWaiter waiter) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.waiter = waiter;
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.get();
+        }
+    }
+
+    /**
+     * Called by the producer. Returns the same slot until it is published.
+     * @return the slot to fill, or null if the buffer is full.
+     */
+    public T claim() {
+        long index = tail.get();
+        if (index - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (index - cachedHead >= slots.length) return null;
+        }
+        return slot(index);
+    }
+
+    /**
+     * Called by the producer after filling the claimed slot.
+     */
+    public void publish() {
+        // a volatile write, so that the waiter sees either the new element or the parked consumer
+        tail.set(tail.get() + 1);
+        if (waiter != null) waiter.signal();
+    }
+
+    /**
+     * Called by the consumer. Returns the same slot until it is released.
+     * @return the oldest published slot, or null if the buffer is empty.
+     */
+    public T peek() {
+        long index = head.get();
+        if (index >= cachedTail) {
+            cachedTail = tail.get();
+            if (index >= cachedTail) return null;
+        }
+        return slot(index);
+    }
+
+    /**
+     * Called by the consumer once it no longer reads the peeked slot.
+     */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int size() {
+        long index = head.get();
+        return (int) (tail.get() - index);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T slot(long index) {
+        return (T) slots[(int) index & mask];
+    }
+}
@@ -0,0 +1,109 @@
+package dev.abu.screener_backend.websockets;
+
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+import dev.abu.screener_backend.binance.entities.Trade;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Compact binary encoding of trade lists, sent as binary websocket messages to the clients
+ * that connect with {@code ?format=binary}.
+ * <pre>
+ * frame     := type:u8 time:i64 count:varint tradeList{count} removedCount:varint symbol{removedCount}
+ * type      := 0 (all trade lists) | 1 (delta mode snapshot) | 2 (delta mode changes)
+ * tradeList := symbol bidsCount:u8 asksCount:u8 trade{bidsCount + asksCount}
+ * symbol    := length:varint utf8
+ * trade     := price:decimal quantity:decimal distance:varint level:u8 age:svarint
+ * decimal   := unscaledValue:svarint scale:u8
+ * </pre>
+ * {@code i64} is big-endian, {@code varint} is an unsigned LEB128 and {@code svarint} is a zigzag-encoded varint.
+ * Distance is sent in tenths of a percent, age is {@code time - life} in milliseconds,
+ * where {@code time} is the time in the header of the frame.
+ * A decimal is {@code unscaledValue / 10^scale}, with the digits of the shortest representation of the double.
+ */
+public class BinaryTradeListEncoder {
+
+    public static final int TYPE_FULL = 0;
+    public static final int TYPE_SNAPSHOT = 1;
+    public static final int TYPE_DELTA = 2;
+
+    private BinaryTradeListEncoder() {}
+
+    /**
+     * @return the frame header, to be followed by the trade lists, see {@link #encodeTradeList}.
+     */
+    public static byte[] encodeHeader(int type, long time, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (time >>> shift));
+        }
+        writeVarint(out, count);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the removed symbols that end the frame.
+     */
+    public static byte[] encodeRemoved(Collection<String> mSymbols) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        writeVarint(out, mSymbols.size());
+        for (String mSymbol : mSymbols) {
+            writeString(out, mSymbol);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param time time from the header of the frame, ages of trades are relative to it.
+     */
+    public static byte[] encodeTradeList(TradeListDTO dto, long time) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        writeString(out, dto.s());
+        out.write(dto.b().size());
+        out.write(dto.a().size());
+        for (Trade trade : dto.b()) {
+            writeTrade(out, trade, time);
+        }
+        for (Trade trade : dto.a()) {
+            writeTrade(out, trade, time);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeTrade(ByteArrayOutputStream out, Trade trade, long time) {
+        writeDecimal(out, trade.getPrice());
+        writeDecimal(out, trade.getQuantity());
+        writeVarint(out, Math.round(trade.getDistance() * 10));
+        out.write(trade.getLevel());
+        writeSignedVarint(out, time - trade.getLife());
+    }
+
+    private static void writeDecimal(ByteArrayOutputStream out, double value) {
+        BigDecimal decimal = BigDecimal.valueOf(value).stripTrailingZeros();
+        if (decimal.scale() < 0) decimal = decimal.setScale(0);
+        writeSignedVarint(out, decimal.unscaledValue().longValueExact());
+        out.write(decimal.scale());
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeSignedVarint(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,359 @@
+package dev.abu.screener_backend.websockets;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+import dev.abu.screener_backend.metrics.LatencyMetrics;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.abu.screener_backend.metrics.LatencyStage.END_TO_END;
+import static dev.abu.screener_backend.metrics.LatencyStage.SEND;
+import static dev.abu.screener_backend.utils.EnvParams.SESSION_HEARTBEAT_INTERVAL;
+import static dev.abu.screener_backend.utils.EnvParams.SESSION_SENDER_THREADS;
+import static dev.abu.screener_backend.utils.EnvParams.SESSION_SEND_QUEUE_CAPACITY;
+import static dev.abu.screener_backend.utils.EnvParams.SESSION_SEND_TIMEOUT;
+import static dev.abu.screener_backend.utils.EnvParams.SLOW_CONSUMER_POLICY;
+import static dev.abu.screener_backend.websockets.BinaryTradeListEncoder.TYPE_DELTA;
+import static dev.abu.screener_backend.websockets.BinaryTradeListEncoder.TYPE_SNAPSHOT;
+
+/**
+ * A websocket session of a user on /ws/binance/depth together with its protocol options.
+ * <br> <br>
+ * By default, every frame is a JSON array of all trade lists of the user. Clients that connect with
+ * {@code ?mode=delta} receive JSON objects instead, which contain only the trade lists that changed
+ * since the previous frame sent to this session and the symbols that were removed:
+ * <pre>
+ * {"t":"snapshot","u":[...all trade lists...],"r":[]}
+ * {"t":"delta","u":[...changed trade lists...],"r":["btcusdt.f"]}
+ * </pre>
+ * A snapshot is sent right after connecting and whenever the client sends the text message {@code snapshot}.
+ * <br> <br>
+ * Clients that connect with {@code ?format=binary} receive the same frames encoded by {@link BinaryTradeListEncoder}
+ * as binary messages. Both options can be combined.
+ * <br> <br>
+ * Frames are not sent by the broadcast workers: they are put into the send queue of the session,
+ * which is drained by a sender thread, so a slow client doesn't delay the others.
+ * When the queue is full, the {@link SlowConsumerPolicy} from config.properties applies.
+ * The sender threads are a fixed pool, so a blocked send is limited by {@code session.send-timeout},
+ * after which the session is closed and its thread is free again.
+ * <br> <br>
+ * Clients choose how often they receive frames with {@code ?interval=<milliseconds>}, which is rounded up to one of
+ * {@link #INTERVALS}, 100ms by default. The broadcast runs every {@link #BASE_INTERVAL} milliseconds and
+ * each session is sent a frame every {@code interval / BASE_INTERVAL} ticks. Sessions get different phases,
+ * so that the sessions of each interval are spread evenly over the ticks instead of all being due on the same one.
+ */
+@Slf4j
+public class ClientSession {
+
+    public static final String MODE_ATTRIBUTE = "mode";
+    public static final String DELTA_MODE = "delta";
+    public static final String SNAPSHOT_REQUEST = "snapshot";
+    public static final String FORMAT_ATTRIBUTE = "format";
+    public static final String BINARY_FORMAT = "binary";
+    public static final String INTERVAL_ATTRIBUTE = "interval";
+    public static final long BASE_INTERVAL = 50;
+    public static final int[] INTERVALS = {50, 100, 250, 1000};
+    private static final int DEFAULT_INTERVAL = 100;
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private static final SlowConsumerPolicy policy = SlowConsumerPolicy.fromConfig(SLOW_CONSUMER_POLICY);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final AtomicInteger sessionCount = new AtomicInteger();
+    // each session is drained by at most one thread at a time, so a stalled session holds only one thread
+    private static final ExecutorService sender = Executors.newFixedThreadPool(SESSION_SENDER_THREADS, r -> {
+        Thread thread = new Thread(r);
+        thread.setName("ws-sender-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Getter
+    private final WebSocketSession session;
+    @Getter
+    private final boolean isDelta;
+    @Getter
+    private final boolean isBinary;
+    @Getter
+    private final int interval;
+    private final int ticksPerFrame;
+    private final int phase;
+
+    // trade lists sent in the previous frame, accessed by one broadcast worker at a time
+    private final Map<String, TradeListDTO> lastSent = new HashMap<>();
+    // set by the websocket handler thread, cleared by the broadcast worker that builds the snapshot
+    private final AtomicBoolean isSnapshotRequested = new AtomicBoolean(true);
+    // version of the user's order book and time of the previous frame, accessed by one broadcast worker at a time
+    private long sentVersion = -1;
+    private long sentTime;
+
+    private final Deque<OutboundFrame> sendQueue = new ArrayDeque<>();
+    private boolean isDraining;
+    // set when the session must be closed, the close is done by the draining thread
+    private boolean isCloseRequested;
+    // oldest Binance event times of the changes not sent to this session yet, 0 if there are none
+    private final AtomicLong oldestSpotEventTime = new AtomicLong();
+    private final AtomicLong oldestFutEventTime = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    public ClientSession(WebSocketSession session) {
+        this.session = session;
+        this.isDelta = DELTA_MODE.equals(session.getAttributes().get(MODE_ATTRIBUTE));
+        this.isBinary = BINARY_FORMAT.equals(session.getAttributes().get(FORMAT_ATTRIBUTE));
+        this.interval = parseInterval(session.getAttributes().get(INTERVAL_ATTRIBUTE));
+        this.ticksPerFrame = (int) (interval / BASE_INTERVAL);
+        this.phase = Math.floorMod(sessionCount.getAndIncrement(), ticksPerFrame);
+        setSendTimeout(session);
+    }
+
+    /**
+     * @return true if a frame is due on the given broadcast tick.
+     */
+    public boolean isDue(long tick) {
+        return (tick + phase) % ticksPerFrame == 0;
+    }
+
+    /**
+     * @return true if the order book of the user changed since the previous frame, or the session needs a snapshot.
+     */
+    public boolean hasChanges(long version) {
+        return version != sentVersion || isSnapshotRequested.get();
+    }
+
+    public boolean isHeartbeatDue(long now) {
+        return SESSION_HEARTBEAT_INTERVAL > 0 && now - sentTime >= SESSION_HEARTBEAT_INTERVAL;
+    }
+
+    /**
+     * Remembers the state of the order book that is being sent, called before building the frame.
+     */
+    public void markSent(long version, long now) {
+        sentVersion = version;
+        sentTime = now;
+    }
+
+    /**
+     * Remembers the event time of a change of the user's order book, until the change is sent.
+     * @param eventTime time set by Binance of the depth event that produced the change, 0 if unknown.
+     */
+    public void recordChange(boolean isSpot, long eventTime) {
+        if (eventTime <= 0) return;
+        AtomicLong oldest = isSpot ? oldestSpotEventTime : oldestFutEventTime;
+        oldest.accumulateAndGet(eventTime, (current, time) -> current == 0 ? time : Math.min(current, time));
+    }
+
+    /**
+     * @return the oldest event time of the changes not sent yet, which are considered sent from now on, 0 if there are none.
+     */
+    public long takeOldestEventTime(boolean isSpot) {
+        return (isSpot ? oldestSpotEventTime : oldestFutEventTime).getAndSet(0);
+    }
+
+    public boolean isOpen() {
+        return session.isOpen();
+    }
+
+    /**
+     * Makes the next frame of the session contain the full state, used by the clients in delta mode.
+     */
+    public void requestSnapshot() {
+        isSnapshotRequested.set(true);
+    }
+
+    /**
+     * Called after a frame of the default mode was queued, since such frames always contain the full state.
+     */
+    public void clearSnapshotRequest() {
+        isSnapshotRequested.set(false);
+    }
+
+    /**
+     * Puts the message into the send queue of the session and schedules the queue to be drained.
+     * @param spotEventTime oldest Binance event time of the spot changes sent for the first time, 0 if there are none.
+     * @param futEventTime oldest Binance event time of the futures changes sent for the first time, 0 if there are none.
+     */
+    public void send(WebSocketMessage<?> message, long spotEventTime, long futEventTime) {
+        synchronized (sendQueue) {
+            if (isCloseRequested) return;
+            if (sendQueue.size() >= SESSION_SEND_QUEUE_CAPACITY && !handleFullQueue()) {
+                return;
+            }
+            sendQueue.add(new OutboundFrame(message, System.nanoTime(), spotEventTime, futEventTime));
+            if (isDraining) return;
+            isDraining = true;
+        }
+        sender.execute(this::drain);
+    }
+
+    public int getQueueSize() {
+        synchronized (sendQueue) {
+            return sendQueue.size();
+        }
+    }
+
+    /**
+     * @return number of frames dropped since the previous call.
+     */
+    public long resetDroppedFrames() {
+        return droppedFrames.getAndSet(0);
+    }
+
+    /**
+     * Applies the slow consumer policy, must be called while holding the lock of the queue.
+     * @return true if the message should still be queued.
+     */
+    private boolean handleFullQueue() {
+        switch (policy) {
+            case COALESCE -> {
+                droppedFrames.addAndGet(sendQueue.size());
+                sendQueue.clear();
+                if (!isDelta) return true;
+                // a delta depends on the frames before it, the latest state is sent as the next snapshot
+                droppedFrames.incrementAndGet();
+                requestSnapshot();
+                return false;
+            }
+            case DROP -> {
+                droppedFrames.incrementAndGet();
+                if (isDelta) requestSnapshot();
+                return false;
+            }
+            default -> {
+                // the queue is full, so a thread is draining it and will close the session
+                droppedFrames.addAndGet(sendQueue.size() + 1);
+                sendQueue.clear();
+                isCloseRequested = true;
+                log.warn("Closing slow websocket session {}, {} frames are waiting to be sent", session.getId(), SESSION_SEND_QUEUE_CAPACITY);
+                return false;
+            }
+        }
+    }
+
+    private void drain() {
+        boolean isClosing;
+        while (true) {
+            OutboundFrame frame;
+            synchronized (sendQueue) {
+                frame = sendQueue.poll();
+                isClosing = isCloseRequested;
+                if (frame == null || isClosing || !session.isOpen()) {
+                    sendQueue.clear();
+                    isDraining = false;
+                    break;
+                }
+            }
+            try {
+                session.sendMessage(frame.message());
+                recordLatency(frame);
+            } catch (Exception e) {
+                // a send that failed or timed out leaves the session unusable
+                log.error("Couldn't send data to session {}, closing it: {}", session.getId(), e.getMessage());
+                synchronized (sendQueue) {
+                    isCloseRequested = true;
+                }
+            }
+        }
+        if (isClosing) closeSlowSession();
+    }
+
+    /**
+     * Records the latency of the frames that contain changes sent for the first time, heartbeats are skipped.
+     * The end-to-end latency is measured from the oldest of these changes, the one that waited the longest.
+     */
+    private void recordLatency(OutboundFrame frame) {
+        if (frame.spotEventTime() > 0) {
+            LatencyMetrics.recordSince(SEND, true, frame.queuedAt());
+            LatencyMetrics.recordSinceEventTime(END_TO_END, true, frame.spotEventTime());
+        }
+        if (frame.futEventTime() > 0) {
+            LatencyMetrics.recordSince(SEND, false, frame.queuedAt());
+            LatencyMetrics.recordSinceEventTime(END_TO_END, false, frame.futEventTime());
+        }
+    }
+
+    private static int parseInterval(Object value) {
+        if (value == null) return DEFAULT_INTERVAL;
+        try {
+            int requested = Integer.parseInt(value.toString().trim());
+            for (int interval : INTERVALS) {
+                if (requested <= interval) return interval;
+            }
+            return INTERVALS[INTERVALS.length - 1];
+        } catch (NumberFormatException e) {
+            return DEFAULT_INTERVAL;
+        }
+    }
+
+    /**
+     * Limits the time a send may block on a client that doesn't read, supported by the Tomcat websocket container.
+     */
+    private static void setSendTimeout(WebSocketSession session) {
+        if (SESSION_SEND_TIMEOUT <= 0 || !(session instanceof NativeWebSocketSession nativeSession)) return;
+        jakarta.websocket.Session nativeWebSocket = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+        if (nativeWebSocket != null) {
+            nativeWebSocket.getUserProperties().put(BLOCKING_SEND_TIMEOUT, (long) SESSION_SEND_TIMEOUT);
+        }
+    }
+
+    private void closeSlowSession() {
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.warn("Failed to close WebSocket session: {}", session.getId(), e);
+        }
+    }
+
+    /**
+     * Builds the next delta-mode message and remembers the given trade lists as sent.
+     * @param current all current trade lists of the user by market symbol.
+     * @param fragments cache of the current tick.
+     * @param isHeartbeat whether an empty delta should be returned if nothing changed.
+     * @return the message, or null if nothing changed since the previous message and it isn't a heartbeat.
+     */
+    public WebSocketMessage<?> nextDeltaMessage(Map<String, TradeListDTO> current, FragmentCache fragments, boolean isHeartbeat) throws JsonProcessingException {
+        boolean isSnapshot = isSnapshotRequested.getAndSet(false);
+
+        List<TradeListDTO> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        if (isSnapshot) {
+            changed.addAll(current.values());
+        } else {
+            for (var entry : current.entrySet()) {
+                // a new DTO instance is distributed only when the trades of a trade list change
+                if (lastSent.get(entry.getKey()) != entry.getValue()) {
+                    changed.add(entry.getValue());
+                }
+            }
+            for (String mSymbol : lastSent.keySet()) {
+                if (!current.containsKey(mSymbol)) {
+                    removed.add(mSymbol);
+                }
+            }
+            if (changed.isEmpty() && removed.isEmpty() && !isHeartbeat) return null;
+        }
+
+        lastSent.clear();
+        lastSent.putAll(current);
+
+        if (isBinary) {
+            return new BinaryMessage(fragments.encodeBinary(isSnapshot ? TYPE_SNAPSHOT : TYPE_DELTA, changed, removed));
+        }
+        return new TextMessage(fragments.encodeDelta(isSnapshot, changed, removed));
+    }
+
+    private record OutboundFrame(WebSocketMessage<?> message, long queuedAt, long spotEventTime, long futEventTime) {}
+}
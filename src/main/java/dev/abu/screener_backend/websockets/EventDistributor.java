@@ -1,114 +1,185 @@
 package dev.abu.screener_backend.websockets;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.dt.TradeListDTO;
 import dev.abu.screener_backend.settings.Settings;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.abu.screener_backend.utils.EnvParams.BROADCAST_THREADS;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class EventDistributor {
 
-    private final Map<String, Set<UserContainer>> users = new ConcurrentHashMap<>();
-    private final Map<UserContainer, Set<String>> customizedSymbols = new ConcurrentHashMap<>();
+    // users are split into tasks of at least this size, smaller tasks cost more to schedule than to run
+    private static final int MIN_USERS_PER_TASK = 64;
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(ClientSession.BASE_INTERVAL);
 
-    @Scheduled(fixedRate = 100L)
-    public void broadcastData() {
-        try {
-            Set<UserContainer> seen = ConcurrentHashMap.newKeySet();
-            users.values().stream()
-                    .flatMap(Set::stream)
-                    .filter(seen::add)
-                    .forEach(UserContainer::broadcastEvents);
-        } catch (Exception e) {
-            log.warn(e.getMessage(), e);
-        }
+    private final ObjectMapper mapper;
+    private final RoutingIndex routingIndex = new RoutingIndex();
+    // latest trade list of every (settingsHash, mSymbol), trade lists are distributed only when they change,
+    // so new users get the current ones from here
+    private final Map<String, Map<String, TradeListDTO>> latest = new ConcurrentHashMap<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "broadcast-tick"));
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(1, BROADCAST_THREADS),
+            r -> newThread(r, "broadcast-worker-" + threadCount.incrementAndGet())
+    );
+
+    // accessed only by the ticker thread
+    private long tick;
+    private long nextTickAt;
+
+    private final AtomicLong tickCount = new AtomicLong();
+    private final AtomicLong tickNanos = new AtomicLong();
+    private final AtomicLong maxTickNanos = new AtomicLong();
+    private final AtomicLong overrunCount = new AtomicLong();
+
+    /**
+     * Broadcasts run on a dedicated thread every {@link ClientSession#BASE_INTERVAL} milliseconds,
+     * and the users are split between the broadcast workers, see {@code broadcast.threads} of config.properties.
+     * Ticks never overlap: if a tick takes longer than the interval, the ticks that were missed meanwhile are
+     * skipped and counted as overruns, instead of running back-to-back to catch up.
+     */
+    @PostConstruct
+    public void startBroadcast() {
+        nextTickAt = System.nanoTime() + INTERVAL_NANOS;
+        ticker.scheduleAtFixedRate(this::broadcastData, ClientSession.BASE_INTERVAL, ClientSession.BASE_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public void distribute(String hash, int level, TradeListDTO tradeListDTO) {
+    @PreDestroy
+    public void stopBroadcast() {
+        ticker.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
+    public void printMetrics() {
+        long ticks = tickCount.getAndSet(0);
+        long nanos = tickNanos.getAndSet(0);
+        long maxNanos = maxTickNanos.getAndSet(0);
+        long overruns = overrunCount.getAndSet(0);
+        log.info("broadcast: [ticks={}, avg={}ms, max={}ms, overruns={}]",
+                ticks, ticks == 0 ? 0 : String.format("%.2f", nanos / 1e6 / ticks), String.format("%.2f", maxNanos / 1e6), overruns);
+    }
+
+    /**
+     * Sessions are sent frames according to their interval, see {@link ClientSession#isDue}.
+     */
+    private void broadcastData() {
+        long start = System.nanoTime();
+        long scheduledAt = nextTickAt;
+        nextTickAt += INTERVAL_NANOS;
+        if (start - scheduledAt >= INTERVAL_NANOS) {
+            // a catch-up run of a tick missed during an overrun
+            overrunCount.incrementAndGet();
+            return;
+        }
         try {
-            if (level == 0) {
-                deleteEvents(hash, tradeListDTO);
+            long currentTick = tick++;
+            FragmentCache fragments = new FragmentCache(mapper);
+            List<UserContainer> users = routingIndex.getAllUsers();
+            int tasks = Math.min(Math.max(1, BROADCAST_THREADS), (users.size() + MIN_USERS_PER_TASK - 1) / MIN_USERS_PER_TASK);
+
+            if (tasks <= 1) {
+                broadcast(users, fragments, currentTick);
             } else {
-                addEvent(hash, tradeListDTO);
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks];
+                for (int i = 0; i < tasks; i++) {
+                    List<UserContainer> part = users.subList(users.size() * i / tasks, users.size() * (i + 1) / tasks);
+                    futures[i] = CompletableFuture.runAsync(() -> broadcast(part, fragments, currentTick), workers);
+                }
+                CompletableFuture.allOf(futures).join();
             }
         } catch (Exception e) {
-            log.error("Could not distribute event for {}", tradeListDTO.s(), e);
+            log.warn(e.getMessage(), e);
         }
+        recordTick(System.nanoTime() - start);
     }
 
-    public void registerUser(Collection<Settings> settings, UserContainer userContainer) {
-        for (Settings s : settings) {
-            var hash = s.getSettingsHash();
-            if (!hash.contains("all")) {
-                customizedSymbols.computeIfAbsent(userContainer, k -> ConcurrentHashMap.newKeySet()).add(s.getMSymbol());
-            }
-            if (users.containsKey(hash)) {
-                users.get(hash).add(userContainer);
-            } else {
-                Set<UserContainer> set = ConcurrentHashMap.newKeySet();
-                set.add(userContainer);
-                users.put(hash, set);
+    private void broadcast(List<UserContainer> users, FragmentCache fragments, long currentTick) {
+        for (UserContainer user : users) {
+            try {
+                user.broadcastEvents(fragments, currentTick);
+            } catch (Exception e) {
+                log.warn("Broadcast failed: {}", e.getMessage(), e);
             }
         }
     }
 
-    public void unregisterUser(Collection<Settings> settings, UserContainer userContainer) {
-        customizedSymbols.remove(userContainer);
-        for (Settings s : settings) {
-            var hash = s.getSettingsHash();
-            if (users.containsKey(hash)) {
-                Set<UserContainer> containers = users.get(hash);
-                containers.remove(userContainer);
-                if (containers.isEmpty()) {
-                    users.remove(hash);
-                }
-            }
+    private void recordTick(long nanos) {
+        tickCount.incrementAndGet();
+        tickNanos.addAndGet(nanos);
+        maxTickNanos.accumulateAndGet(nanos, Math::max);
+        if (nanos > INTERVAL_NANOS) {
+            overrunCount.incrementAndGet();
         }
     }
 
-    private void deleteEvents(String hash, TradeListDTO tradeListDTO) {
-        Set<UserContainer> containers = getUsers(hash);
-        if (containers == null) return;
-        String mSymbol = tradeListDTO.s();
-
-        if (hash.contains("all")) {
-            containers.stream()
-                    .filter(user -> {
-                        Set<String> cs = customizedSymbols.get(user);
-                        return cs == null || !cs.contains(mSymbol);
-                    })
-                    .forEach(u -> u.remove(mSymbol));
-        } else {
-            containers.forEach(u -> u.remove(mSymbol));
+    private static Thread newThread(Runnable r, String name) {
+        Thread thread = new Thread(r);
+        thread.setName(name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @param eventTime time set by Binance of the depth event that produced the trade list, 0 for snapshots.
+     */
+    public void distribute(String hash, int level, TradeListDTO tradeListDTO, long eventTime) {
+        try {
+            String mSymbol = tradeListDTO.s();
+            // updated before reading the recipients, so that a user registered meanwhile gets it either way
+            Map<String, TradeListDTO> latestOfHash = latest.computeIfAbsent(hash, k -> new ConcurrentHashMap<>());
+            if (level == 0) {
+                latestOfHash.remove(mSymbol);
+            } else {
+                latestOfHash.put(mSymbol, tradeListDTO);
+            }
+            Set<UserContainer> recipients = routingIndex.getRecipients(hash, mSymbol);
+            if (level == 0) {
+                recipients.forEach(user -> user.remove(mSymbol, eventTime));
+            } else {
+                recipients.forEach(user -> user.take(mSymbol, tradeListDTO, eventTime));
+            }
+        } catch (Exception e) {
+            log.error("Could not distribute event for {}", tradeListDTO.s(), e);
         }
     }
 
-    private void addEvent(String hash, TradeListDTO tradeListDTO) {
-        Set<UserContainer> containers = users.get(hash);
-        if (containers == null || containers.isEmpty()) return;
-
-        String mSymbol = tradeListDTO.s();
-
-        if (hash.contains("all")) {
-            containers.stream()
-                    .filter(user -> {
-                        Set<String> cs = customizedSymbols.get(user);
-                        return cs == null || !cs.contains(mSymbol);
-                    })
-                    .forEach(user -> user.take(mSymbol, tradeListDTO));
-        } else {
-            containers.forEach(user -> user.take(mSymbol, tradeListDTO));
+    /**
+     * Registers the user and gives it the current trade lists of its settings.
+     */
+    public void registerUser(Collection<Settings> settings, UserContainer userContainer) {
+        routingIndex.register(settings, userContainer);
+        for (Settings s : settings) {
+            String hash = s.getSettingsHash();
+            Map<String, TradeListDTO> latestOfHash = latest.get(hash);
+            if (latestOfHash == null) continue;
+            for (TradeListDTO dto : latestOfHash.values()) {
+                if (routingIndex.getRecipients(hash, dto.s()).contains(userContainer)) {
+                    userContainer.seed(dto.s(), dto);
+                }
+            }
         }
     }
 
-    private Set<UserContainer> getUsers(String hash) {
-        return users.get(hash);
+    public void unregisterUser(Collection<Settings> settings, UserContainer userContainer) {
+        routingIndex.unregister(settings, userContainer);
     }
 }
@@ -0,0 +1,140 @@
+package dev.abu.screener_backend.websockets;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Encodes each {@link TradeListDTO} once per broadcast tick.
+ * <br> <br>
+ * The same DTO instance is distributed to all users with the same settings, so the DTOs are cached by identity
+ * and the message of every user is built by concatenating the cached fragments.
+ * The JSON array is byte-identical to {@code mapper.writeValueAsBytes(dtos)}.
+ * <br> <br>
+ * A new cache is created for every tick, so that the DTOs of the previous tick can be collected.
+ * <br> <br>
+ * The cache is shared by the broadcast workers. The lock is held only to look up and store fragments,
+ * so two workers may occasionally encode the same DTO, and then both get the same bytes.
+ */
+public class FragmentCache {
+
+    private static final byte[] SNAPSHOT_PREFIX = "{\"t\":\"snapshot\",\"u\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DELTA_PREFIX = "{\"t\":\"delta\",\"u\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REMOVED_PREFIX = ",\"r\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper;
+    private final long time = System.currentTimeMillis();
+    private final Map<TradeListDTO, byte[]> fragments = new IdentityHashMap<>();
+    private final Map<TradeListDTO, byte[]> binaryFragments = new IdentityHashMap<>();
+
+    public FragmentCache(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return JSON array of the given DTOs.
+     */
+    public byte[] encode(Collection<TradeListDTO> dtos) throws JsonProcessingException {
+        if (dtos.isEmpty()) return new byte[]{'[', ']'};
+
+        // collect the fragments first, since the collection may change while the message is being built
+        byte[][] parts = new byte[dtos.size()][];
+        int count = 0;
+        int length = 1;
+        for (TradeListDTO dto : dtos) {
+            if (count == parts.length) break;
+            byte[] fragment = getFragment(dto);
+            parts[count++] = fragment;
+            length += fragment.length + 1;
+        }
+
+        byte[] message = new byte[length];
+        int pos = 0;
+        message[pos++] = '[';
+        for (int i = 0; i < count; i++) {
+            if (i > 0) message[pos++] = ',';
+            System.arraycopy(parts[i], 0, message, pos, parts[i].length);
+            pos += parts[i].length;
+        }
+        message[pos] = ']';
+        return message;
+    }
+
+    /**
+     * @return JSON object of the delta mode, see {@link ClientSession}.
+     */
+    public byte[] encodeDelta(boolean isSnapshot, Collection<TradeListDTO> changed, Collection<String> removed) throws JsonProcessingException {
+        return concat(
+                isSnapshot ? SNAPSHOT_PREFIX : DELTA_PREFIX,
+                encode(changed),
+                REMOVED_PREFIX,
+                mapper.writeValueAsBytes(removed),
+                SUFFIX
+        );
+    }
+
+    /**
+     * @return binary frame of the given type, see {@link BinaryTradeListEncoder}.
+     */
+    public byte[] encodeBinary(int type, Collection<TradeListDTO> dtos, Collection<String> removed) {
+        byte[][] parts = new byte[dtos.size() + 2][];
+        int count = 1;
+        for (TradeListDTO dto : dtos) {
+            if (count == parts.length - 1) break;
+            parts[count++] = getBinaryFragment(dto);
+        }
+        parts[0] = BinaryTradeListEncoder.encodeHeader(type, time, count - 1);
+        parts[count++] = BinaryTradeListEncoder.encodeRemoved(removed);
+        byte[][] used = new byte[count][];
+        System.arraycopy(parts, 0, used, 0, count);
+        return concat(used);
+    }
+
+    private byte[] getFragment(TradeListDTO dto) throws JsonProcessingException {
+        byte[] fragment;
+        synchronized (fragments) {
+            fragment = fragments.get(dto);
+        }
+        if (fragment == null) {
+            fragment = mapper.writeValueAsBytes(dto);
+            synchronized (fragments) {
+                fragments.put(dto, fragment);
+            }
+        }
+        return fragment;
+    }
+
+    private byte[] getBinaryFragment(TradeListDTO dto) {
+        byte[] fragment;
+        synchronized (binaryFragments) {
+            fragment = binaryFragments.get(dto);
+        }
+        if (fragment == null) {
+            fragment = BinaryTradeListEncoder.encodeTradeList(dto, time);
+            synchronized (binaryFragments) {
+                binaryFragments.put(dto, fragment);
+            }
+        }
+        return fragment;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+}
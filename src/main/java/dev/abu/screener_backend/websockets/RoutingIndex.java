@@ -0,0 +1,109 @@
+package dev.abu.screener_backend.websockets;
+
+import dev.abu.screener_backend.settings.Settings;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps {@code (settingsHash, mSymbol)} to the users that receive the trade lists of these settings.
+ * <br> <br>
+ * Users of custom settings receive all trade lists of these settings. Users of "all" settings receive the trade lists
+ * of all symbols, except the symbols for which they have custom settings: for such symbols the route of the hash
+ * has a separate set of recipients.
+ * <br> <br>
+ * Routes are immutable and replaced on every change, so that {@link #getRecipients} can be called without locking
+ * from the depth threads. Changes only recompute the routes of the hashes the user is subscribed to.
+ */
+class RoutingIndex {
+
+    private record Route(Set<UserContainer> recipients, Map<String, Set<UserContainer>> symbolRecipients) {}
+
+    private static final Route EMPTY_ROUTE = new Route(Set.of(), Map.of());
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private volatile List<UserContainer> allUsers = List.of();
+
+    // the state below is accessed only while holding the lock of the index
+    private final Map<String, Set<UserContainer>> subscribers = new HashMap<>();
+    private final Map<String, Set<UserContainer>> customizers = new HashMap<>();
+    private final Map<UserContainer, Set<String>> userHashes = new HashMap<>();
+    private final Map<UserContainer, Set<String>> customizedSymbols = new HashMap<>();
+
+    public Set<UserContainer> getRecipients(String hash, String mSymbol) {
+        Route route = routes.getOrDefault(hash, EMPTY_ROUTE);
+        Set<UserContainer> recipients = route.symbolRecipients().get(mSymbol);
+        return recipients == null ? route.recipients() : recipients;
+    }
+
+    public List<UserContainer> getAllUsers() {
+        return allUsers;
+    }
+
+    public synchronized void register(Collection<Settings> settings, UserContainer user) {
+        for (Settings s : settings) {
+            String hash = s.getSettingsHash();
+            if (!isAll(hash)) {
+                customizedSymbols.computeIfAbsent(user, k -> new HashSet<>()).add(s.getMSymbol());
+                customizers.computeIfAbsent(s.getMSymbol(), k -> new HashSet<>()).add(user);
+            }
+            subscribers.computeIfAbsent(hash, k -> new HashSet<>()).add(user);
+            userHashes.computeIfAbsent(user, k -> new HashSet<>()).add(hash);
+        }
+        rebuildRoutes(userHashes.getOrDefault(user, Set.of()));
+    }
+
+    public synchronized void unregister(Collection<Settings> settings, UserContainer user) {
+        Set<String> symbols = customizedSymbols.remove(user);
+        if (symbols != null) {
+            for (String mSymbol : symbols) {
+                removeFrom(customizers, mSymbol, user);
+            }
+        }
+
+        Set<String> affectedHashes = new HashSet<>(userHashes.getOrDefault(user, Set.of()));
+        for (Settings s : settings) {
+            String hash = s.getSettingsHash();
+            affectedHashes.add(hash);
+            removeFrom(subscribers, hash, user);
+            removeFrom(userHashes, user, hash);
+        }
+        rebuildRoutes(affectedHashes);
+    }
+
+    private void rebuildRoutes(Collection<String> hashes) {
+        for (String hash : hashes) {
+            Set<UserContainer> users = subscribers.get(hash);
+            if (users == null) {
+                routes.remove(hash);
+                continue;
+            }
+
+            Map<String, Set<UserContainer>> symbolRecipients = new HashMap<>();
+            if (isAll(hash)) {
+                Set<String> symbols = new HashSet<>();
+                for (UserContainer user : users) {
+                    symbols.addAll(customizedSymbols.getOrDefault(user, Set.of()));
+                }
+                for (String mSymbol : symbols) {
+                    Set<UserContainer> recipients = new HashSet<>(users);
+                    recipients.removeAll(customizers.getOrDefault(mSymbol, Set.of()));
+                    symbolRecipients.put(mSymbol, Set.copyOf(recipients));
+                }
+            }
+            routes.put(hash, new Route(Set.copyOf(users), Map.copyOf(symbolRecipients)));
+        }
+        allUsers = List.copyOf(userHashes.keySet());
+    }
+
+    private static boolean isAll(String hash) {
+        return hash.contains("all");
+    }
+
+    private static <K, V> void removeFrom(Map<K, Set<V>> map, K key, V value) {
+        Set<V> set = map.get(key);
+        if (set == null) return;
+        set.remove(value);
+        if (set.isEmpty()) map.remove(key);
+    }
+}
@@ -1,6 +1,5 @@
 package dev.abu.screener_backend.websockets;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.appuser.AppUser;
 import dev.abu.screener_backend.appuser.AppUserRepository;
 import dev.abu.screener_backend.binance.OBService;
@@ -8,6 +7,7 @@ import dev.abu.screener_backend.settings.Settings;
 import dev.abu.screener_backend.settings.UserSettingsRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -21,7 +21,6 @@ import java.util.concurrent.ConcurrentHashMap;
 @RequiredArgsConstructor
 public class SessionManager {
 
-    private final ObjectMapper mapper;
     private final AppUserRepository appUserRepository;
     private final EventDistributor eventDistributor;
     private final UserSettingsRepository userSettingsRepository;
@@ -31,11 +30,51 @@ public class SessionManager {
     private final Map<AppUser, Set<WebSocketSession>> userToSessions = new ConcurrentHashMap<>();
     private final Map<AppUser, UserContainer> containers = new ConcurrentHashMap<>();
     private final Map<AppUser, Set<Settings>> userToSettings = new ConcurrentHashMap<>();
+    private volatile List<SessionMetrics> lastMetrics = List.of();
 
     public Set<WebSocketSession> getAllSessions() {
         return sessionToUser.keySet();
     }
 
+    /**
+     * @return send queue size and frames dropped during the last minute of every session, as of the last minute.
+     */
+    public List<SessionMetrics> getLastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Logs the send queues of the sessions: totals, and every session that has queued or dropped frames.
+     * The metrics of all sessions are kept for the metrics endpoint.
+     */
+    @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
+    public void printMetrics() {
+        int sessions = 0;
+        long queued = 0;
+        long dropped = 0;
+        List<SessionMetrics> metrics = new ArrayList<>();
+        StringBuilder slowSessions = new StringBuilder();
+        for (var entry : containers.entrySet()) {
+            for (ClientSession session : entry.getValue().getSessions()) {
+                int queueSize = session.getQueueSize();
+                long droppedFrames = session.resetDroppedFrames();
+                metrics.add(new SessionMetrics(session.getSession().getId(), entry.getKey().getEmail(), session.getInterval(), queueSize, droppedFrames));
+                sessions++;
+                queued += queueSize;
+                dropped += droppedFrames;
+                if (queueSize > 0 || droppedFrames > 0) {
+                    slowSessions.append(session.getSession().getId())
+                            .append(" (").append(entry.getKey().getEmail())
+                            .append("): [queue=").append(queueSize)
+                            .append(", dropped=").append(droppedFrames).append("], ");
+                }
+            }
+        }
+        lastMetrics = List.copyOf(metrics);
+        if (!slowSessions.isEmpty()) slowSessions.delete(slowSessions.length() - 2, slowSessions.length());
+        log.info("websocket sessions: [sessions={}, queued={}, dropped={}] {{}}", sessions, queued, dropped, slowSessions);
+    }
+
     public void addSession(WebSocketSession session) {
         AppUser user = extractUser(session);
         if (user == null) return;
@@ -48,6 +87,15 @@ public class SessionManager {
         setupUser(user, session);
     }
 
+    public void requestSnapshot(WebSocketSession session) {
+        AppUser user = sessionToUser.get(session);
+        if (user == null) return;
+        UserContainer container = containers.get(user);
+        if (container != null) {
+            container.requestSnapshot(session);
+        }
+    }
+
     public void removeSession(WebSocketSession session) {
         AppUser user = sessionToUser.remove(session);
 
@@ -85,7 +133,7 @@ public class SessionManager {
             eventDistributor.unregisterUser(userSettings, containers.get(user));
         }
 
-        UserContainer userContainer = new UserContainer(user, session, mapper);
+        UserContainer userContainer = new UserContainer(user, session);
         containers.put(user, userContainer);
         eventDistributor.registerUser(userSettings, userContainer);
     }
@@ -123,4 +171,9 @@ public class SessionManager {
             log.warn("Failed to close WebSocket session: {}", session.getId(), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Send queue of one session, see {@link ClientSession}.
+     */
+    public record SessionMetrics(String sessionId, String user, int interval, int queueSize, long droppedFrames) {}
+}
@@ -0,0 +1,38 @@
+package dev.abu.screener_backend.websockets;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+
+/**
+ * What happens to a websocket session whose send queue is full, see {@link ClientSession}.
+ */
+@Slf4j
+public enum SlowConsumerPolicy {
+
+    /**
+     * Queued frames are discarded and only the latest state is kept.
+     * Sessions in delta mode receive a snapshot on the next tick instead.
+     */
+    COALESCE,
+
+    /**
+     * The new frame is discarded, sessions in delta mode receive a snapshot once the queue has room again.
+     */
+    DROP,
+
+    /**
+     * The session is closed.
+     */
+    DISCONNECT;
+
+    public static SlowConsumerPolicy fromConfig(String value) {
+        if (value == null || value.isBlank()) return COALESCE;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown slow consumer policy: {}, using {}", value, COALESCE);
+            return COALESCE;
+        }
+    }
+}
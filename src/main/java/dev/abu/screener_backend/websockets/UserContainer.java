@@ -1,58 +1,149 @@
 package dev.abu.screener_backend.websockets;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.abu.screener_backend.binance.dt.TradeListDTO;
 import dev.abu.screener_backend.appuser.AppUser;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.abu.screener_backend.utils.EnvParams.FUT_SIGN;
+import static dev.abu.screener_backend.websockets.BinaryTradeListEncoder.TYPE_FULL;
 
 @Slf4j
 public class UserContainer {
 
-    private final ObjectMapper mapper;
     private final AppUser user;
-    private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<WebSocketSession, ClientSession> sessions = new ConcurrentHashMap<>();
     private final Map<String, TradeListDTO> orderBook = new ConcurrentHashMap<>();
 
-    public UserContainer(AppUser user, WebSocketSession session, ObjectMapper mapper) {
+    // incremented on every change of the trades in the order book
+    private final AtomicLong version = new AtomicLong();
+
+    public UserContainer(AppUser user, WebSocketSession session) {
         this.user = user;
-        this.mapper = mapper;
         addSession(session);
     }
 
     public void addSession(WebSocketSession session) {
-        sessions.add(session);
+        sessions.put(session, new ClientSession(session));
+    }
+
+    /**
+     * Makes the next frame of the given session a full snapshot, used by the clients in delta mode.
+     */
+    public void requestSnapshot(WebSocketSession session) {
+        ClientSession clientSession = sessions.get(session);
+        if (clientSession != null) {
+            clientSession.requestSnapshot();
+        }
     }
 
-    public void take(String mSymbol, TradeListDTO event) {
+    public Collection<ClientSession> getSessions() {
+        return sessions.values();
+    }
+
+    /**
+     * Stores the trade list of the symbol, a trade list with the same trades as the stored one is ignored,
+     * so that the sessions aren't sent frames without changes.
+     * Called only by the order book of the symbol.
+     */
+    public void take(String mSymbol, TradeListDTO event, long eventTime) {
+        if (event.hasSameTrades(orderBook.get(mSymbol))) return;
         orderBook.put(mSymbol, event);
+        recordChange(mSymbol, eventTime);
+        version.incrementAndGet();
     }
 
-    public void remove(String mSymbol) {
-        orderBook.remove(mSymbol);
+    /**
+     * Adds a trade list the user hasn't received yet, unless a newer one has been taken meanwhile.
+     */
+    public void seed(String mSymbol, TradeListDTO event) {
+        if (orderBook.putIfAbsent(mSymbol, event) == null) {
+            version.incrementAndGet();
+        }
     }
 
-    public void broadcastEvents() {
-        if (sessions.isEmpty() || orderBook.isEmpty()) {
+    public void remove(String mSymbol, long eventTime) {
+        if (orderBook.remove(mSymbol) != null) {
+            recordChange(mSymbol, eventTime);
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Passes the event time of the change to the sessions, for the end-to-end latency.
+     * Recorded before the version is incremented, so that a frame that contains the change also accounts for it.
+     */
+    private void recordChange(String mSymbol, long eventTime) {
+        boolean isSpot = !mSymbol.endsWith(FUT_SIGN);
+        for (ClientSession session : sessions.values()) {
+            session.recordChange(isSpot, eventTime);
+        }
+    }
+
+    /**
+     * Queues the current trade lists for the sessions of the user that are due on the given tick:
+     * all trade lists to sessions in the default mode, and only the changes to sessions in delta mode.
+     * <br> <br>
+     * Nothing is sent to a session if the order book hasn't changed since its previous frame and it isn't waiting
+     * for a snapshot, except for a heartbeat every {@code session.heartbeat-interval} milliseconds.
+     * @param fragments cache of the current tick, messages are built from the cached fragments.
+     * @param tick number of the broadcast tick, see {@link ClientSession#isDue}.
+     */
+    public void broadcastEvents(FragmentCache fragments, long tick) {
+        if (sessions.isEmpty()) {
             return;
         }
 
-        sessions.forEach(session -> {
+        // read before copying, so that changes made during the copy are sent on the next tick
+        long currentVersion = version.get();
+        long now = System.currentTimeMillis();
+        Map<String, TradeListDTO> current = null;
+        TextMessage fullMessage = null;
+        byte[] fullBinaryPayload = null;
+
+        for (ClientSession session : sessions.values()) {
             if (!session.isOpen()) {
-                sessions.remove(session);
-                return;
+                sessions.remove(session.getSession());
+                continue;
             }
+            if (!session.isDue(tick)) continue;
+            boolean isHeartbeat = session.isHeartbeatDue(now);
+            if (!isHeartbeat && !session.hasChanges(currentVersion)) continue;
+
+            if (current == null) current = new HashMap<>(orderBook);
+            session.markSent(currentVersion, now);
+            long spotEventTime = session.takeOldestEventTime(true);
+            long futEventTime = session.takeOldestEventTime(false);
             try {
-                byte[] message = mapper.writeValueAsBytes(orderBook.values());
-                session.sendMessage(new TextMessage(message));
+                if (session.isDelta()) {
+                    WebSocketMessage<?> message = session.nextDeltaMessage(current, fragments, isHeartbeat);
+                    if (message != null) session.send(message, spotEventTime, futEventTime);
+                } else if (current.isEmpty()) {
+                    // nothing is sent until the first trade list arrives, which changes the version
+                    session.clearSnapshotRequest();
+                } else if (session.isBinary()) {
+                    if (fullBinaryPayload == null) {
+                        fullBinaryPayload = fragments.encodeBinary(TYPE_FULL, current.values(), List.of());
+                    }
+                    // the payload buffer of a binary message is consumed by sending, so it can't be shared
+                    session.send(new BinaryMessage(fullBinaryPayload), spotEventTime, futEventTime);
+                    session.clearSnapshotRequest();
+                } else {
+                    if (fullMessage == null) fullMessage = new TextMessage(fragments.encode(current.values()));
+                    session.send(fullMessage, spotEventTime, futEventTime);
+                    session.clearSnapshotRequest();
+                }
             } catch (Exception e) {
-                log.error("Couldn't send data to user {}: {}", user.getEmail(), e.getMessage());
+                log.error("Couldn't prepare data for user {}: {}", user.getEmail(), e.getMessage());
             }
-        });
+        }
     }
 
     @Override
@@ -6,6 +6,7 @@ import org.springframework.lang.NonNull;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
@@ -30,6 +31,13 @@ public class WSDepthHandler extends TextWebSocketHandler {
         sessionManager.addSession(session);
     }
 
+    @Override
+    protected void handleTextMessage(@NonNull WebSocketSession session, @NonNull TextMessage message) {
+        if (ClientSession.SNAPSHOT_REQUEST.equals(message.getPayload().trim())) {
+            sessionManager.requestSnapshot(session);
+        }
+    }
+
     @Override
     public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) {
         sessionManager.removeSession(session);
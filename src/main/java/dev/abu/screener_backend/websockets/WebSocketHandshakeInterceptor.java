@@ -49,6 +49,18 @@ public class WebSocketHandshakeInterceptor implements HandshakeInterceptor {
 
             if (isUserSubscribed) {
                 attributes.put("token", token);
+                String mode = servletRequest.getParameter(ClientSession.MODE_ATTRIBUTE);
+                if (mode != null) {
+                    attributes.put(ClientSession.MODE_ATTRIBUTE, mode);
+                }
+                String format = servletRequest.getParameter(ClientSession.FORMAT_ATTRIBUTE);
+                if (format != null) {
+                    attributes.put(ClientSession.FORMAT_ATTRIBUTE, format);
+                }
+                String interval = servletRequest.getParameter(ClientSession.INTERVAL_ATTRIBUTE);
+                if (interval != null) {
+                    attributes.put(ClientSession.INTERVAL_ATTRIBUTE, interval);
+                }
                 return true;
             } else {
                 response.setStatusCode(HttpStatus.FORBIDDEN);
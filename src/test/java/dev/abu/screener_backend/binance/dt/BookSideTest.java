@@ -0,0 +1,108 @@
+package dev.abu.screener_backend.binance.dt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookSideTest {
+
+    @Test
+    void ranksStartFromBestPrice() {
+        BookSide bids = new BookSide(false);
+        BookSide asks = new BookSide(true);
+        for (double price : new double[]{100.2, 100.0, 100.1}) {
+            bids.put(price, 1, 0);
+            asks.put(price, 1, 0);
+        }
+
+        assertEquals(100.2, bids.bestPrice());
+        assertEquals(100.1, bids.price(1));
+        assertEquals(100.0, bids.price(2));
+        assertEquals(100.0, asks.bestPrice());
+        assertEquals(100.1, asks.price(1));
+        assertEquals(100.2, asks.price(2));
+    }
+
+    @Test
+    void levelsKeepFirstSeenTimeAcrossClear() {
+        BookSide bids = new BookSide(false);
+        bids.put(100.0, 1, 1_000);
+        bids.put(99.0, 1, 1_000);
+
+        bids.clear();
+        bids.put(100.0, 2, 2_000);
+        bids.put(98.0, 2, 2_000);
+
+        assertEquals(1_000, bids.time(bids.rankOf(100.0)));
+        assertEquals(2_000, bids.time(bids.rankOf(98.0)));
+    }
+
+    @Test
+    void levelsKeepFirstSeenTimeAcrossDoubleClear() {
+        BookSide bids = new BookSide(false);
+        bids.put(100.0, 1, 1_000);
+
+        bids.clear();
+        bids.clear();
+        bids.put(100.0, 2, 2_000);
+
+        assertEquals(1_000, bids.time(0));
+        assertEquals(2, bids.quantity(0));
+    }
+
+    @Test
+    void truncateKeepsFiveLargestLevelsOfChunk() {
+        BookSide bids = new BookSide(false);
+        // one chunk at ~10% from the market price, quantities 1..10 in shuffled order
+        double[] quantities = {3, 9, 1, 7, 10, 2, 8, 4, 6, 5};
+        for (int i = 0; i < quantities.length; i++) {
+            bids.put(90.0 + i * 0.1, quantities[i], 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            bids.put(99.0 + i * 0.1, 1, 0);
+        }
+
+        bids.truncate(5, 100, 5);
+
+        assertEquals(10, bids.size());
+        for (int rank = 0; rank < 5; rank++) {
+            assertEquals(99.4 - rank * 0.1, bids.price(rank), 1e-9);
+        }
+        // the five largest levels of the chunk, still sorted by price
+        double[] keptPrices = {90.8, 90.6, 90.4, 90.3, 90.1};
+        double[] keptQuantities = {6, 8, 10, 7, 9};
+        for (int i = 0; i < 5; i++) {
+            assertEquals(keptPrices[i], bids.price(5 + i), 1e-9);
+            assertEquals(keptQuantities[i], bids.quantity(5 + i));
+        }
+    }
+
+    @Test
+    void truncateKeepsBestLevelsAndLargestLevelsOfEveryChunk() {
+        BookSide asks = new BookSide(true);
+        Set<Long> largeKeys = new HashSet<>();
+        // asks from 100.1 to 120.0, with a large level in the middle of every percent
+        for (int i = 1; i <= 200; i++) {
+            double price = 100 + i * 0.1;
+            boolean isLarge = i % 10 == 5;
+            asks.put(price, isLarge ? 1_000 : 1, 0);
+            if (isLarge) largeKeys.add(BookSide.toKey(price));
+        }
+
+        asks.truncate(50, 100, 5);
+
+        for (int rank = 0; rank < 50; rank++) {
+            assertEquals(100 + (rank + 1) * 0.1, asks.price(rank), 1e-9);
+        }
+        for (int rank = 1; rank < asks.size(); rank++) {
+            assertTrue(asks.price(rank) > asks.price(rank - 1));
+        }
+        for (long key : largeKeys) {
+            assertTrue(asks.contains(key / 1e8), "missing large level " + key / 1e8);
+        }
+        assertTrue(asks.size() < 200);
+    }
+}
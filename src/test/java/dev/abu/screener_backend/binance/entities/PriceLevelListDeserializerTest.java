@@ -0,0 +1,65 @@
+package dev.abu.screener_backend.binance.entities;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceLevelListDeserializerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0", "-0", "0.0", "1", "-1", "0.00000001", "0.00123000", "65000.10", "1234567.89012345",
+            // the largest exact mantissa, 2^53, and the values right around it
+            "9007199254740992", "9007199254740993", "9007199254740991", "900719925474099.2", "0.9007199254740993",
+            // 17 and 18 significant digits
+            "12345678901234567", "123456789012345678", "0.12345678901234567",
+            // the largest exact power of ten, 10^22, and past it
+            "1.0000000000000000000000", "0.0000000000000000000001", "0.00000000000000000000001",
+            "000000.000000000000000000000012",
+            // leading zeros don't count as significant digits
+            "00000000000000000000001", "0.000000000000000000000000000001",
+            ".5", "5.", "-.5"
+    })
+    void parsesLikeDoubleParseDouble(String value) {
+        char[] buf = ("xx" + value + "yy").toCharArray();
+        double parsed = PriceLevelListDeserializer.parseDouble(buf, 2, value.length());
+        assertEquals(Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(parsed), value);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"1e5", "1.5E-3", "Infinity", "NaN"})
+    void fallsBackToDoubleParseDoubleForOtherFormats(String value) {
+        char[] buf = value.toCharArray();
+        assertEquals(Double.parseDouble(value), PriceLevelListDeserializer.parseDouble(buf, 0, buf.length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-", ".", "1.2.3", "abc"})
+    void rejectsInvalidNumbers(String value) {
+        char[] buf = value.toCharArray();
+        assertThrows(NumberFormatException.class, () -> PriceLevelListDeserializer.parseDouble(buf, 0, buf.length));
+    }
+
+    @Test
+    void readsPriceLevels() throws IOException {
+        JsonParser p = new ObjectMapper().createParser("[[\"0.0024\",\"10\"],[\"0.0025\",\"100\",\"ignored\"],[1.5,2]]");
+        p.nextToken();
+        PriceLevelList levels = PriceLevelListDeserializer.read(p);
+
+        assertEquals(JsonToken.END_ARRAY, p.currentToken());
+        assertEquals(3, levels.size());
+        assertEquals(0.0024, levels.price(0));
+        assertEquals(10, levels.quantity(0));
+        assertEquals(0.0025, levels.price(1));
+        assertEquals(100, levels.quantity(1));
+        assertEquals(1.5, levels.price(2));
+        assertEquals(2, levels.quantity(2));
+    }
+}
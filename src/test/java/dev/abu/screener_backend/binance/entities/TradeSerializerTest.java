@@ -0,0 +1,88 @@
+package dev.abu.screener_backend.binance.entities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TradeSerializerTest {
+
+    @ParameterizedTest
+    @ValueSource(doubles = {
+            0.0, -0.0, 1, -1, 2500.25, 12.5, 0.8, 65000.1, 0.00001234, 1_000_000,
+            // the bounds of the plain range
+            1e-3, -1e-3, 9.99e-4, 1e7, -1e7, 9_999_999.99,
+            // 15 significant digits and more
+            1234567.89012345, 0.123456789012345, 1234567.890123456, 0.1234567890123456,
+            0.30000000000000004, 1234567.8901234567, 9_999_999.999999999,
+            Double.MIN_VALUE, Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    })
+    void formatsDoubleLikeBigDecimal(double value) {
+        assertFormatsDouble(value);
+    }
+
+    @Test
+    void formatsNeighboursOfPlainRangeBoundsLikeBigDecimal() {
+        for (double bound : new double[]{1e-3, 1e7}) {
+            double value = bound;
+            for (int i = 0; i < 1_000; i++) {
+                value = Math.nextDown(value);
+                assertFormatsDouble(value);
+            }
+            value = bound;
+            for (int i = 0; i < 1_000; i++) {
+                value = Math.nextUp(value);
+                assertFormatsDouble(value);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, -1, 9, 10, 1_700_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1})
+    void formatsLongLikeBigDecimal(long value) {
+        assertFormatsLong(value);
+    }
+
+    @Test
+    void formatsRandomBitPatternsLikeBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value)) continue;
+            assertFormatsDouble(value);
+            assertFormatsLong(random.nextLong());
+        }
+    }
+
+    @Test
+    void formatsRandomValuesOfPlainRangeLikeBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500_000; i++) {
+            // uniform over the exponents of the plain range, with any mantissa
+            double value = Math.pow(10, -3 + random.nextDouble() * 10);
+            assertFormatsDouble(random.nextBoolean() ? value : -value);
+            // prices and quantities as Binance sends them, with up to 8 decimal places
+            int scale = random.nextInt(9);
+            long unscaled = random.nextLong(1, (long) Math.pow(10, 7 + scale));
+            assertFormatsDouble(BigDecimal.valueOf(unscaled, scale).doubleValue());
+        }
+    }
+
+    private static void assertFormatsDouble(double value) {
+        char[] buf = new char[32];
+        int len = TradeSerializer.formatDouble(buf, value);
+        // the serializer writes BigDecimal.valueOf(value).toPlainString() itself for these
+        if (len < 0) return;
+        assertEquals(BigDecimal.valueOf(value).toPlainString(), new String(buf, buf.length - len, len), Double.toString(value));
+    }
+
+    private static void assertFormatsLong(long value) {
+        char[] buf = new char[32];
+        int len = TradeSerializer.formatLong(buf, value);
+        assertEquals(BigDecimal.valueOf(value).toPlainString(), new String(buf, buf.length - len, len));
+    }
+}
@@ -0,0 +1,130 @@
+package dev.abu.screener_backend.binance.ws;
+
+import dev.abu.screener_backend.binance.entities.DepthEvent;
+import dev.abu.screener_backend.binance.entities.PriceLevelList;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepthEventMergerTest {
+
+    @Test
+    void spotDiffContinuesPreviousWhenItStartsRightAfterIt() {
+        DepthEvent previous = spot(100, 110);
+        assertTrue(DepthEventMerger.isContiguous(previous, spot(111, 120)));
+    }
+
+    @Test
+    void spotDiffContinuesPreviousWhenItOverlapsIt() {
+        DepthEvent previous = spot(100, 110);
+        assertTrue(DepthEventMerger.isContiguous(previous, spot(105, 120)));
+    }
+
+    @Test
+    void spotDiffDoesNotContinuePreviousAfterGap() {
+        DepthEvent previous = spot(100, 110);
+        assertFalse(DepthEventMerger.isContiguous(previous, spot(112, 120)));
+    }
+
+    @Test
+    void spotDiffDoesNotContinuePreviousWhenItHasNoNewUpdates() {
+        DepthEvent previous = spot(100, 110);
+        assertFalse(DepthEventMerger.isContiguous(previous, spot(100, 110)));
+        assertFalse(DepthEventMerger.isContiguous(previous, spot(90, 105)));
+    }
+
+    @Test
+    void futuresDiffContinuesPreviousWhenPuEqualsPreviousU() {
+        DepthEvent previous = fut(100, 110, 99);
+        assertTrue(DepthEventMerger.isContiguous(previous, fut(115, 120, 110)));
+    }
+
+    @Test
+    void futuresDiffDoesNotContinuePreviousWhenPuDiffers() {
+        DepthEvent previous = fut(100, 110, 99);
+        assertFalse(DepthEventMerger.isContiguous(previous, fut(111, 120, 109)));
+        assertFalse(DepthEventMerger.isContiguous(previous, fut(111, 120, 111)));
+        assertFalse(DepthEventMerger.isContiguous(previous, fut(100, 110, 99)));
+    }
+
+    @Test
+    void mergeKeepsFirstIdsOfPreviousAndLastIdsOfNext() {
+        DepthEvent previous = fut(100, 110, 99);
+        previous.setEventTime(1_000);
+        previous.setDecodedAt(5);
+        DepthEvent next = fut(111, 120, 110);
+        next.setEventTime(2_000);
+        next.setDecodedAt(7);
+
+        DepthEvent merged = DepthEventMerger.merge(previous, next);
+
+        assertEquals(100, merged.getFirstUpdateId());
+        assertEquals(120, merged.getFinalUpdateId());
+        assertEquals(99, merged.getLastUpdateId());
+        assertEquals(2_000, merged.getEventTime());
+        assertEquals(5, merged.getDecodedAt());
+        assertFalse(merged.isSpot());
+        assertEquals("btcusdt", merged.getSymbol());
+    }
+
+    @Test
+    void mergeKeepsNoPuForSpot() {
+        DepthEvent merged = DepthEventMerger.merge(spot(100, 110), spot(111, 120));
+        assertNull(merged.getLastUpdateId());
+        assertTrue(merged.isSpot());
+    }
+
+    @Test
+    void mergeLetsLevelsOfNextOverrideLevelsOfPrevious() {
+        DepthEvent previous = spot(100, 110);
+        previous.setBids(levels(10.0, 1, 11.0, 2, 12.0, 3));
+        previous.setAsks(levels(20.0, 1));
+        DepthEvent next = spot(111, 120);
+        next.setBids(levels(11.0, 0, 13.0, 4));
+        next.setAsks(levels(20.0, 5, 21.0, 6));
+
+        DepthEvent merged = DepthEventMerger.merge(previous, next);
+
+        // levels only in previous first, then all levels of next
+        assertLevels(merged.getBids(), 10.0, 1, 12.0, 3, 11.0, 0, 13.0, 4);
+        assertLevels(merged.getAsks(), 20.0, 5, 21.0, 6);
+    }
+
+    private static DepthEvent spot(long U, long u) {
+        DepthEvent event = event(U, u);
+        event.setSpot(true);
+        return event;
+    }
+
+    private static DepthEvent fut(long U, long u, long pu) {
+        DepthEvent event = event(U, u);
+        event.setLastUpdateId(pu);
+        return event;
+    }
+
+    private static DepthEvent event(long U, long u) {
+        DepthEvent event = new DepthEvent();
+        event.setSymbol("BTCUSDT");
+        event.setFirstUpdateId(U);
+        event.setFinalUpdateId(u);
+        event.setBids(new PriceLevelList());
+        event.setAsks(new PriceLevelList());
+        return event;
+    }
+
+    private static PriceLevelList levels(double... pricesAndQuantities) {
+        PriceLevelList levels = new PriceLevelList();
+        for (int i = 0; i < pricesAndQuantities.length; i += 2) {
+            levels.add(pricesAndQuantities[i], pricesAndQuantities[i + 1]);
+        }
+        return levels;
+    }
+
+    private static void assertLevels(PriceLevelList actual, double... pricesAndQuantities) {
+        assertEquals(pricesAndQuantities.length / 2, actual.size(), actual.toString());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(pricesAndQuantities[2 * i], actual.price(i), actual.toString());
+            assertEquals(pricesAndQuantities[2 * i + 1], actual.quantity(i), actual.toString());
+        }
+    }
+}
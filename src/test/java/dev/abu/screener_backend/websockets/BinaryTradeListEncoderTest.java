@@ -0,0 +1,111 @@
+package dev.abu.screener_backend.websockets;
+
+import dev.abu.screener_backend.binance.dt.TradeListDTO;
+import dev.abu.screener_backend.binance.entities.Trade;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static dev.abu.screener_backend.websockets.BinaryTradeListEncoder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryTradeListEncoderTest {
+
+    private static final long TIME = 1_700_000_000_123L;
+
+    @Test
+    void decodesBackToTheEncodedTradeLists() {
+        List<Trade> bids = List.of(
+                new Trade(65000.1, 1.25, 0.5, 3, TIME - 60_000),
+                new Trade(0.00001234, 1_000_000, 12.34, 1, TIME)
+        );
+        List<Trade> asks = List.of(
+                new Trade(65010, 0.001, 0.05, 2, TIME + 5)
+        );
+        TradeListDTO btc = new TradeListDTO("btcusdt", bids, asks);
+        TradeListDTO eth = new TradeListDTO("ethusdt.f", List.of(), List.of());
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.writeBytes(encodeHeader(TYPE_DELTA, TIME, 2));
+        frame.writeBytes(encodeTradeList(btc, TIME));
+        frame.writeBytes(encodeTradeList(eth, TIME));
+        frame.writeBytes(encodeRemoved(List.of("xrpusdt", "solusdt.f")));
+
+        ByteBuffer in = ByteBuffer.wrap(frame.toByteArray());
+        assertEquals(TYPE_DELTA, in.get());
+        assertEquals(TIME, in.getLong());
+        assertEquals(2, readVarint(in));
+
+        assertEquals("btcusdt", readString(in));
+        assertEquals(2, in.get());
+        assertEquals(1, in.get());
+        for (Trade trade : bids) {
+            assertTrade(trade, in);
+        }
+        for (Trade trade : asks) {
+            assertTrade(trade, in);
+        }
+
+        assertEquals("ethusdt.f", readString(in));
+        assertEquals(0, in.get());
+        assertEquals(0, in.get());
+
+        assertEquals(2, readVarint(in));
+        assertEquals("xrpusdt", readString(in));
+        assertEquals("solusdt.f", readString(in));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    void encodesDecimalsWithShortestDigits() {
+        TradeListDTO dto = new TradeListDTO("a", List.of(new Trade(0.1, 2500, 0, 0, TIME)), List.of());
+        ByteBuffer in = ByteBuffer.wrap(encodeTradeList(dto, TIME));
+        readString(in);
+        in.get();
+        in.get();
+
+        assertEquals(1, readSignedVarint(in));
+        assertEquals(1, in.get());
+        assertEquals(2500, readSignedVarint(in));
+        assertEquals(0, in.get());
+    }
+
+    private static void assertTrade(Trade expected, ByteBuffer in) {
+        assertEquals(expected.getPrice(), readDecimal(in));
+        assertEquals(expected.getQuantity(), readDecimal(in));
+        assertEquals(Math.round(expected.getDistance() * 10), readVarint(in));
+        assertEquals(expected.getLevel(), in.get() & 0xFF);
+        assertEquals(expected.getLife(), TIME - readSignedVarint(in));
+    }
+
+    private static double readDecimal(ByteBuffer in) {
+        long unscaled = readSignedVarint(in);
+        int scale = in.get() & 0xFF;
+        return new BigDecimal(BigInteger.valueOf(unscaled), scale).doubleValue();
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readSignedVarint(ByteBuffer in) {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}